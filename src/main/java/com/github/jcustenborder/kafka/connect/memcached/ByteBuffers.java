@@ -0,0 +1,44 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts {@link ByteBuffer} values to the byte[] payload spymemcached expects. A heap buffer that
+ * spans its entire backing array is handed over without a copy. Slices and direct buffers are copied
+ * once. The position and limit of the input are not modified.
+ */
+final class ByteBuffers {
+  private ByteBuffers() {
+  }
+
+  static byte[] bytes(ByteBuffer input) {
+    if (input.hasArray() &&
+        0 == input.arrayOffset() &&
+        0 == input.position() &&
+        input.remaining() == input.array().length) {
+      return input.array();
+    }
+    final byte[] result = new byte[input.remaining()];
+    if (input.hasArray()) {
+      System.arraycopy(input.array(), input.arrayOffset() + input.position(), result, 0, result.length);
+    } else {
+      input.duplicate().get(result);
+    }
+    return result;
+  }
+}
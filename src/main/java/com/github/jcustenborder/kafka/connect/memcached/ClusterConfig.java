@@ -0,0 +1,182 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.github.jcustenborder.kafka.connect.utils.config.ConfigKeyBuilder;
+import com.github.jcustenborder.kafka.connect.utils.config.ConfigUtils;
+import com.github.jcustenborder.kafka.connect.utils.config.ValidHostnameAndPort;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Strings;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Definition of a named memcached cluster and the rules used to route records to it. Clusters
+ * are configured with settings prefixed by {@code memcached.cluster.<name>.}.
+ */
+class ClusterConfig {
+  static final String PREFIX = "memcached.cluster.";
+  static final String HOSTS_SUFFIX = "hosts";
+  static final String TOPICS_REGEX_SUFFIX = "topics.regex";
+  static final String HEADER_NAME_SUFFIX = "header.name";
+  static final String HEADER_VALUE_SUFFIX = "header.value";
+  static final String KEY_PREFIX_SUFFIX = "key.prefix";
+
+  final String name;
+  final List<InetSocketAddress> hosts;
+  final Pattern topicsRegex;
+  final String headerName;
+  final String headerValue;
+  final String keyPrefix;
+
+  ClusterConfig(String name, List<InetSocketAddress> hosts, Pattern topicsRegex, String headerName, String headerValue, String keyPrefix) {
+    this.name = name;
+    this.hosts = hosts;
+    this.topicsRegex = topicsRegex;
+    this.headerName = headerName;
+    this.headerValue = headerValue;
+    this.keyPrefix = keyPrefix;
+  }
+
+  static String key(String name, String suffix) {
+    return PREFIX + name + "." + suffix;
+  }
+
+  /**
+   * @return the settings of the named cluster so they can be validated like every other setting.
+   */
+  static ConfigDef config(String name) {
+    return new ConfigDef()
+        .define(
+            ConfigKeyBuilder.of(key(name, HOSTS_SUFFIX), ConfigDef.Type.LIST)
+                .group(MemcachedSinkConnectorConfig.GROUP_ROUTING)
+                .displayName("Hosts for cluster " + name)
+                .validator(ValidHostnameAndPort.of())
+                .importance(ConfigDef.Importance.HIGH)
+                .documentation("Memcached hosts of the cluster.")
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(key(name, TOPICS_REGEX_SUFFIX), ConfigDef.Type.STRING)
+                .group(MemcachedSinkConnectorConfig.GROUP_ROUTING)
+                .displayName("Topics regex for cluster " + name)
+                .defaultValue("")
+                .validator(new RegexValidator())
+                .importance(ConfigDef.Importance.MEDIUM)
+                .documentation("Records from topics matching the regular expression are routed to the cluster.")
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(key(name, HEADER_NAME_SUFFIX), ConfigDef.Type.STRING)
+                .group(MemcachedSinkConnectorConfig.GROUP_ROUTING)
+                .displayName("Header name for cluster " + name)
+                .defaultValue("")
+                .importance(ConfigDef.Importance.MEDIUM)
+                .documentation("Records with this header are routed to the cluster.")
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(key(name, HEADER_VALUE_SUFFIX), ConfigDef.Type.STRING)
+                .group(MemcachedSinkConnectorConfig.GROUP_ROUTING)
+                .displayName("Header value for cluster " + name)
+                .defaultValue("")
+                .importance(ConfigDef.Importance.MEDIUM)
+                .documentation("Only records where the header has this value are routed to the cluster.")
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(key(name, KEY_PREFIX_SUFFIX), ConfigDef.Type.STRING)
+                .group(MemcachedSinkConnectorConfig.GROUP_ROUTING)
+                .displayName("Key prefix for cluster " + name)
+                .defaultValue("")
+                .importance(ConfigDef.Importance.MEDIUM)
+                .documentation("Records whose key, before hashing, starts with the prefix are routed to the cluster.")
+                .build()
+        );
+  }
+
+  static class RegexValidator implements ConfigDef.Validator {
+    @Override
+    public void ensureValid(String name, Object value) {
+      if (null == value) {
+        return;
+      }
+      try {
+        Pattern.compile(value.toString());
+      } catch (PatternSyntaxException e) {
+        throw new ConfigException(name, value, e.getMessage());
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "A regular expression.";
+    }
+  }
+
+  static ClusterConfig of(String name, Map<String, ?> settings) {
+    final AbstractConfig config = new AbstractConfig(config(name), settings, false);
+    final List<InetSocketAddress> hosts = ConfigUtils.inetSocketAddresses(config, key(name, HOSTS_SUFFIX));
+    final String topicsRegexKey = key(name, TOPICS_REGEX_SUFFIX);
+    final String topicsRegexSetting = config.getString(topicsRegexKey).trim();
+    final Pattern topicsRegex = topicsRegexSetting.isEmpty() ? null : Pattern.compile(topicsRegexSetting);
+
+    final String headerName = Strings.emptyToNull(config.getString(key(name, HEADER_NAME_SUFFIX)).trim());
+    final String headerValue = Strings.emptyToNull(config.getString(key(name, HEADER_VALUE_SUFFIX)).trim());
+    if (null != headerValue && null == headerName) {
+      throw new ConfigException(
+          key(name, HEADER_VALUE_SUFFIX),
+          headerValue,
+          key(name, HEADER_NAME_SUFFIX) + " must be set when a header value is set."
+      );
+    }
+    final String keyPrefix = Strings.emptyToNull(config.getString(key(name, KEY_PREFIX_SUFFIX)));
+
+    if (null == topicsRegex && null == headerName && null == keyPrefix) {
+      throw new ConfigException(
+          PREFIX + name,
+          null,
+          String.format(
+              "Cluster '%s' must define at least one of %s, %s or %s.",
+              name,
+              topicsRegexKey,
+              key(name, HEADER_NAME_SUFFIX),
+              key(name, KEY_PREFIX_SUFFIX)
+          )
+      );
+    }
+    return new ClusterConfig(name, hosts, topicsRegex, headerName, headerValue, keyPrefix);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("name", this.name)
+        .add("hosts", this.hosts)
+        .add("topicsRegex", this.topicsRegex)
+        .add("headerName", this.headerName)
+        .add("headerValue", this.headerValue)
+        .add("keyPrefix", this.keyPrefix)
+        .toString();
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.apache.kafka.connect.header.Header;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects the cluster a record is written to. Routes are evaluated in the order the clusters are
+ * configured and the first route where every configured rule matches wins. Records that do not
+ * match any route are sent to the default cluster. Key prefixes are matched against the expanded
+ * key template before any hashing so that long keys are routed by their readable prefix. Header
+ * values that are byte[] or ByteBuffer are decoded as UTF-8 before they are compared.
+ */
+class ClusterRouter {
+  static class Route {
+    final ClusterConfig config;
+    final MemcachedCluster cluster;
+    final Map<String, Boolean> topicMatches = new HashMap<>();
+
+    Route(ClusterConfig config, MemcachedCluster cluster) {
+      this.config = config;
+      this.cluster = cluster;
+    }
+
+    boolean matches(SinkRecord record, String key) {
+      if (null != this.config.topicsRegex) {
+        Boolean topicMatch = this.topicMatches.get(record.topic());
+        if (null == topicMatch) {
+          topicMatch = this.config.topicsRegex.matcher(record.topic()).matches();
+          this.topicMatches.put(record.topic(), topicMatch);
+        }
+        if (!topicMatch) {
+          return false;
+        }
+      }
+      if (null != this.config.keyPrefix && !key.startsWith(this.config.keyPrefix)) {
+        return false;
+      }
+      if (null != this.config.headerName) {
+        final Header header = record.headers().lastWithName(this.config.headerName);
+        if (null == header) {
+          return false;
+        }
+        if (null != this.config.headerValue) {
+          return this.config.headerValue.equals(headerValue(header.value()));
+        }
+      }
+      return true;
+    }
+  }
+
+  static String headerValue(Object value) {
+    if (value instanceof byte[]) {
+      return new String((byte[]) value, StandardCharsets.UTF_8);
+    } else if (value instanceof ByteBuffer) {
+      return StandardCharsets.UTF_8.decode(((ByteBuffer) value).duplicate()).toString();
+    }
+    return null == value ? null : value.toString();
+  }
+
+  final MemcachedCluster defaultCluster;
+  final List<Route> routes;
+
+  ClusterRouter(MemcachedCluster defaultCluster, List<Route> routes) {
+    this.defaultCluster = defaultCluster;
+    this.routes = routes;
+  }
+
+  public MemcachedCluster route(SinkRecord record, String key) {
+    for (int i = 0; i < this.routes.size(); i++) {
+      final Route route = this.routes.get(i);
+      if (route.matches(record, key)) {
+        return route.cluster;
+      }
+    }
+    return this.defaultCluster;
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.google.common.base.MoreObjects;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A frequently written key reported by {@link HotKeySketch}.
+ */
+public class HotKey {
+  private final String key;
+  private final String node;
+  private final double writesPerSecond;
+  private final double bytesPerSecond;
+
+  @ConstructorProperties({"key", "node", "writesPerSecond", "bytesPerSecond"})
+  public HotKey(String key, String node, double writesPerSecond, double bytesPerSecond) {
+    this.key = key;
+    this.node = node;
+    this.writesPerSecond = writesPerSecond;
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  public String getKey() {
+    return this.key;
+  }
+
+  /**
+   * @return the memcached node the key is stored on.
+   */
+  public String getNode() {
+    return this.node;
+  }
+
+  public double getWritesPerSecond() {
+    return this.writesPerSecond;
+  }
+
+  public double getBytesPerSecond() {
+    return this.bytesPerSecond;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("key", this.key)
+        .add("node", this.node)
+        .add("writesPerSecond", this.writesPerSecond)
+        .add("bytesPerSecond", this.bytesPerSecond)
+        .toString();
+  }
+}
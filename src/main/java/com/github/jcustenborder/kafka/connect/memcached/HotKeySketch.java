@@ -0,0 +1,207 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Fixed memory heavy hitter detection over tumbling windows. Write counts and bytes per key are
+ * estimated with a count-min sketch and the keys with the highest estimates are kept in a small
+ * top-k table. Recording a write does not allocate; a 64-bit hash of the key is computed once and
+ * the index in each sketch row is derived from its two halves so that rows are independent. At
+ * the end of each window the top-k table is published as a snapshot of write rates and the sketch
+ * is reset. Windows are also rolled over when the snapshot is read so that a cluster which stops
+ * receiving writes does not keep reporting its last window.
+ * <p>
+ * {@link #record(String, int, long)} is called from the task thread and the getters from JMX, both
+ * synchronize on this instance.
+ */
+class HotKeySketch implements HotKeysMXBean {
+  static final int DEPTH = 4;
+  static final int WIDTH = 4096;
+  static final Comparator<HotKey> BY_WRITES = Comparator.comparingDouble(HotKey::getWritesPerSecond).reversed();
+
+  final int topK;
+  final long windowNanos;
+  final Function<String, String> nodeLocator;
+  LongSupplier clock = System::nanoTime;
+
+  private final long[] writeCounts = new long[DEPTH * WIDTH];
+  private final long[] byteCounts = new long[DEPTH * WIDTH];
+  private final String[] topKeys;
+  private final int[] topHashes;
+  private final long[] topWrites;
+  private final long[] topBytes;
+  private int topSize;
+  private long writes;
+  private long windowStart;
+
+  private volatile List<HotKey> hotKeys = Collections.emptyList();
+  private volatile long lastWindowWrites;
+
+  /**
+   * @param nodeLocator returns the node a key is stored on. Only called when a window is published.
+   */
+  HotKeySketch(int topK, long windowSecs, Function<String, String> nodeLocator, long now) {
+    this.topK = topK;
+    this.windowNanos = TimeUnit.SECONDS.toNanos(windowSecs);
+    this.nodeLocator = nodeLocator;
+    this.topKeys = new String[topK];
+    this.topHashes = new int[topK];
+    this.topWrites = new long[topK];
+    this.topBytes = new long[topK];
+    this.windowStart = now;
+  }
+
+  /**
+   * FNV-1a over the characters of the key followed by the murmur3 finalizer.
+   */
+  static long hash64(String key) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      h ^= key.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Records a write of the key.
+   *
+   * @param bytes size of the value written.
+   * @param now   current time as returned by {@link System#nanoTime()}.
+   */
+  public synchronized void record(String key, int bytes, long now) {
+    rollOver(now);
+    this.writes++;
+    final long hash64 = hash64(key);
+    final int hash = (int) hash64;
+    // Double hashing, an odd step keeps the rows distinct for a power of two width.
+    final int step = (int) (hash64 >>> 32) | 1;
+    long writeEstimate = Long.MAX_VALUE;
+    long byteEstimate = Long.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      final int index = row * WIDTH + ((hash + row * step) & (WIDTH - 1));
+      writeEstimate = Math.min(writeEstimate, ++this.writeCounts[index]);
+      byteEstimate = Math.min(byteEstimate, this.byteCounts[index] += bytes);
+    }
+
+    int minIndex = -1;
+    long minWrites = Long.MAX_VALUE;
+    for (int i = 0; i < this.topSize; i++) {
+      if (this.topHashes[i] == hash && this.topKeys[i].equals(key)) {
+        this.topWrites[i] = writeEstimate;
+        this.topBytes[i] = byteEstimate;
+        return;
+      }
+      if (this.topWrites[i] < minWrites) {
+        minWrites = this.topWrites[i];
+        minIndex = i;
+      }
+    }
+    if (this.topSize < this.topK) {
+      minIndex = this.topSize++;
+    } else if (writeEstimate <= minWrites) {
+      return;
+    }
+    this.topKeys[minIndex] = key;
+    this.topHashes[minIndex] = hash;
+    this.topWrites[minIndex] = writeEstimate;
+    this.topBytes[minIndex] = byteEstimate;
+  }
+
+  /**
+   * Publishes the current window if it has ended. If a further full window has passed without
+   * writes an empty window is published as well.
+   */
+  synchronized void rollOver(long now) {
+    if (now - this.windowStart < this.windowNanos) {
+      return;
+    }
+    publish(this.windowStart + this.windowNanos);
+    if (now - this.windowStart >= this.windowNanos) {
+      publish(now);
+    }
+  }
+
+  /**
+   * Publishes the current window and starts a new one.
+   */
+  synchronized void publish(long now) {
+    final double seconds = Math.max(1L, now - this.windowStart) / (double) TimeUnit.SECONDS.toNanos(1);
+    final List<HotKey> result = new ArrayList<>(this.topSize);
+    for (int i = 0; i < this.topSize; i++) {
+      result.add(
+          new HotKey(
+              this.topKeys[i],
+              this.nodeLocator.apply(this.topKeys[i]),
+              this.topWrites[i] / seconds,
+              this.topBytes[i] / seconds
+          )
+      );
+    }
+    result.sort(BY_WRITES);
+    this.hotKeys = Collections.unmodifiableList(result);
+    this.lastWindowWrites = this.writes;
+
+    Arrays.fill(this.writeCounts, 0L);
+    Arrays.fill(this.byteCounts, 0L);
+    Arrays.fill(this.topKeys, null);
+    this.topSize = 0;
+    this.writes = 0;
+    this.windowStart = now;
+  }
+
+  @Override
+  public List<HotKey> getHotKeys() {
+    rollOver(this.clock.getAsLong());
+    return this.hotKeys;
+  }
+
+  @Override
+  public List<HotKey> getHotKeysForNode(String node) {
+    final List<HotKey> result = new ArrayList<>();
+    for (HotKey hotKey : getHotKeys()) {
+      if (node.equals(hotKey.getNode())) {
+        result.add(hotKey);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long getWindowSeconds() {
+    return TimeUnit.NANOSECONDS.toSeconds(this.windowNanos);
+  }
+
+  @Override
+  public long getWrites() {
+    rollOver(this.clock.getAsLong());
+    return this.lastWindowWrites;
+  }
+}
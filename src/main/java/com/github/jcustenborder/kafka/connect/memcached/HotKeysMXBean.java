@@ -0,0 +1,43 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import java.util.List;
+
+/**
+ * Metrics reported by {@link HotKeySketch}. Values are for the most recently completed window.
+ */
+public interface HotKeysMXBean {
+  /**
+   * @return the most frequently written keys ordered by write rate.
+   */
+  List<HotKey> getHotKeys();
+
+  /**
+   * @return the most frequently written keys that are stored on the supplied node.
+   */
+  List<HotKey> getHotKeysForNode(String node);
+
+  /**
+   * @return the length of the window in seconds.
+   */
+  long getWindowSeconds();
+
+  /**
+   * @return the number of writes in the most recently completed window.
+   */
+  long getWrites();
+}
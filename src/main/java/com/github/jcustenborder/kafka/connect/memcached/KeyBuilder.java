@@ -0,0 +1,314 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.google.common.io.BaseEncoding;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.header.Header;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the memcached key for a record from the configured key template. Keys that are longer
+ * than memcached allows, or that contain characters the text protocol cannot transmit, are
+ * replaced with {@link #HASH_PREFIX} followed by a hex encoded digest of the key when hashing is
+ * enabled. Otherwise a {@link DataException} is thrown before the record is dispatched. Keys that
+ * already start with the prefix are hashed as well so a hashed key can never collide with a key
+ * that was stored as is.
+ */
+class KeyBuilder {
+  static final int MAX_KEY_LENGTH = 250;
+  static final String KEY_PLACEHOLDER = "key";
+  static final String TOPIC_PLACEHOLDER = "topic";
+  static final String PARTITION_PLACEHOLDER = "partition";
+  static final String KEY_FIELD_PREFIX = "key.";
+  static final String HEADER_PREFIX = "header.";
+  static final String HASH_PREFIX = "h:";
+
+  interface Part {
+    void append(StringBuilder builder, SinkRecord record);
+  }
+
+  static class LiteralPart implements Part {
+    final String literal;
+
+    LiteralPart(String literal) {
+      this.literal = literal;
+    }
+
+    @Override
+    public void append(StringBuilder builder, SinkRecord record) {
+      builder.append(this.literal);
+    }
+  }
+
+  static class KeyPart implements Part {
+    @Override
+    public void append(StringBuilder builder, SinkRecord record) {
+      appendValue(builder, record.key(), "record.key()");
+    }
+  }
+
+  static class TopicPart implements Part {
+    @Override
+    public void append(StringBuilder builder, SinkRecord record) {
+      builder.append(record.topic());
+    }
+  }
+
+  static class PartitionPart implements Part {
+    @Override
+    public void append(StringBuilder builder, SinkRecord record) {
+      builder.append(record.kafkaPartition().intValue());
+    }
+  }
+
+  static class KeyFieldPart implements Part {
+    final String fieldName;
+
+    KeyFieldPart(String fieldName) {
+      this.fieldName = fieldName;
+    }
+
+    @Override
+    public void append(StringBuilder builder, SinkRecord record) {
+      final Object key = record.key();
+      final Object value;
+      if (key instanceof Struct) {
+        final Struct struct = (Struct) key;
+        final Field field = struct.schema().field(this.fieldName);
+        if (null == field) {
+          throw new DataException(
+              String.format("record.key() does not have a field named '%s'.", this.fieldName)
+          );
+        }
+        value = struct.get(field);
+      } else if (key instanceof Map) {
+        value = ((Map<?, ?>) key).get(this.fieldName);
+      } else {
+        throw new DataException(
+            String.format("record.key() must be a Struct or Map to use field '%s' in the key template.", this.fieldName)
+        );
+      }
+      appendValue(builder, value, "record.key()." + this.fieldName);
+    }
+  }
+
+  static class HeaderPart implements Part {
+    final String headerName;
+
+    HeaderPart(String headerName) {
+      this.headerName = headerName;
+    }
+
+    @Override
+    public void append(StringBuilder builder, SinkRecord record) {
+      final Header header = record.headers().lastWithName(this.headerName);
+      if (null == header) {
+        throw new DataException(
+            String.format("Record does not have a header named '%s'.", this.headerName)
+        );
+      }
+      appendValue(builder, header.value(), "header " + this.headerName);
+    }
+  }
+
+  static void appendValue(StringBuilder builder, Object value, String description) {
+    if (value instanceof String) {
+      builder.append((String) value);
+    } else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+      builder.append(value);
+    } else if (value instanceof byte[]) {
+      // Bytes are not necessarily valid UTF-8, hex keeps distinct keys distinct.
+      builder.append(BaseEncoding.base16().lowerCase().encode((byte[]) value));
+    } else if (null == value) {
+      throw new DataException(String.format("%s cannot be null.", description));
+    } else {
+      throw new DataException(
+          String.format(
+              "%s must be a String or primitive but was %s. Use a transform to convert other data types.",
+              description,
+              value.getClass().getName()
+          )
+      );
+    }
+  }
+
+  final List<Part> parts;
+  final boolean keyOnly;
+  final boolean textProtocol;
+  final MessageDigest digest;
+  final StringBuilder builder = new StringBuilder(64);
+
+  KeyBuilder(MemcachedSinkConnectorConfig config) {
+    this(
+        config.keyTemplate,
+        config.keyHashEnabled ? config.keyHashAlgorithm : null,
+        config.protocol
+    );
+  }
+
+  KeyBuilder(String template, String hashAlgorithm, ConnectionFactoryBuilder.Protocol protocol) {
+    this.parts = parse(template);
+    this.keyOnly = this.parts.size() == 1 && this.parts.get(0) instanceof KeyPart;
+    this.textProtocol = ConnectionFactoryBuilder.Protocol.TEXT == protocol;
+    if (null != hashAlgorithm) {
+      try {
+        this.digest = MessageDigest.getInstance(hashAlgorithm);
+      } catch (NoSuchAlgorithmException e) {
+        throw new ConfigException(MemcachedSinkConnectorConfig.KEY_HASH_ALGORITHM_CONF, hashAlgorithm, e.getMessage());
+      }
+    } else {
+      this.digest = null;
+    }
+  }
+
+  static List<Part> parse(String template) {
+    final List<Part> result = new ArrayList<>();
+    int index = 0;
+    while (index < template.length()) {
+      final int start = template.indexOf("${", index);
+      if (start < 0) {
+        result.add(new LiteralPart(template.substring(index)));
+        break;
+      }
+      if (start > index) {
+        result.add(new LiteralPart(template.substring(index, start)));
+      }
+      final int end = template.indexOf('}', start);
+      if (end < 0) {
+        throw new ConfigException(
+            MemcachedSinkConnectorConfig.KEY_TEMPLATE_CONF,
+            template,
+            "Placeholder starting at position " + start + " is not closed."
+        );
+      }
+      result.add(placeholder(template, template.substring(start + 2, end)));
+      index = end + 1;
+    }
+    if (result.isEmpty()) {
+      throw new ConfigException(MemcachedSinkConnectorConfig.KEY_TEMPLATE_CONF, template, "Template cannot be empty.");
+    }
+    return result;
+  }
+
+  static Part placeholder(String template, String name) {
+    if (KEY_PLACEHOLDER.equals(name)) {
+      return new KeyPart();
+    } else if (TOPIC_PLACEHOLDER.equals(name)) {
+      return new TopicPart();
+    } else if (PARTITION_PLACEHOLDER.equals(name)) {
+      return new PartitionPart();
+    } else if (name.startsWith(KEY_FIELD_PREFIX) && name.length() > KEY_FIELD_PREFIX.length()) {
+      return new KeyFieldPart(name.substring(KEY_FIELD_PREFIX.length()));
+    } else if (name.startsWith(HEADER_PREFIX) && name.length() > HEADER_PREFIX.length()) {
+      return new HeaderPart(name.substring(HEADER_PREFIX.length()));
+    }
+    throw new ConfigException(
+        MemcachedSinkConnectorConfig.KEY_TEMPLATE_CONF,
+        template,
+        String.format("Unknown placeholder '${%s}'.", name)
+    );
+  }
+
+  /**
+   * Builds the key for the record.
+   *
+   * @throws DataException if a key cannot be built for the record.
+   */
+  public String build(SinkRecord record) {
+    return finish(template(record));
+  }
+
+  /**
+   * Expands the template for the record without checking or hashing the result.
+   *
+   * @throws DataException if a placeholder cannot be resolved for the record.
+   */
+  public String template(SinkRecord record) {
+    if (this.keyOnly && record.key() instanceof String) {
+      return (String) record.key();
+    }
+    this.builder.setLength(0);
+    for (Part part : this.parts) {
+      part.append(this.builder, record);
+    }
+    return this.builder.toString();
+  }
+
+  /**
+   * Turns the expanded template into a key memcached can store.
+   *
+   * @throws DataException if the key is invalid and hashing is disabled.
+   */
+  public String finish(String key) {
+    if (isValid(key) && (null == this.digest || !key.startsWith(HASH_PREFIX))) {
+      return key;
+    }
+    if (null == this.digest) {
+      throw new DataException(
+          String.format(
+              "Key '%s' is longer than %s bytes or contains whitespace or control characters.",
+              key,
+              MAX_KEY_LENGTH
+          )
+      );
+    }
+    return hash(key);
+  }
+
+  String hash(String key) {
+    final byte[] hash = this.digest.digest(key.getBytes(StandardCharsets.UTF_8));
+    return HASH_PREFIX + BaseEncoding.base16().lowerCase().encode(hash);
+  }
+
+  boolean isValid(String key) {
+    if (key.isEmpty()) {
+      throw new DataException("Key cannot be empty.");
+    }
+    if (key.length() > MAX_KEY_LENGTH) {
+      return false;
+    }
+    int utf8Length = 0;
+    for (int i = 0; i < key.length(); i++) {
+      final char c = key.charAt(i);
+      if (c < 0x80) {
+        utf8Length++;
+        if (this.textProtocol && (c <= ' ' || c == 0x7f)) {
+          return false;
+        }
+      } else if (c < 0x800) {
+        utf8Length += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        utf8Length += 4;
+        i++;
+      } else {
+        utf8Length += 3;
+      }
+    }
+    return utf8Length <= MAX_KEY_LENGTH;
+  }
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import net.spy.memcached.MemcachedClientIF;
+import net.spy.memcached.NodeLocator;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps a {@link SnapshotSegment} per topic partition with the latest value of every key written to
+ * a cluster. The uptime reported by {@code stats} is polled on every node and when a node has
+ * restarted, the keys the locator maps to that node are pushed to it again from the snapshot.
+ * Rehydration uses {@code add} so values written by put() in the meantime are not overwritten, and
+ * skips values whose expiration has passed since they were written. Every segment records the last
+ * offset checkpointed to memcached for its partition. A segment that is behind the offset stored in
+ * memcached when the partition is assigned again was written to by another task in the meantime
+ * and is discarded. Compaction of the segments and rehydration both run on the snapshot thread so
+ * neither blocks put().
+ */
+class KeySnapshot {
+  private static final Logger log = LoggerFactory.getLogger(KeySnapshot.class);
+  static final String UPTIME_STAT = "uptime";
+  /**
+   * Drift in seconds between two uptime samples that is tolerated before a node is considered restarted.
+   */
+  static final long UPTIME_TOLERANCE_SECS = 2L;
+  static final String SUFFIX = ".snapshot";
+  /**
+   * Expirations above this many seconds are treated by memcached as an absolute unix time.
+   */
+  static final int MAX_RELATIVE_EXPIRATION_SECS = 60 * 60 * 24 * 30;
+  static final int EXPIRED = -1;
+
+  static class RehydrateEntry {
+    final String key;
+    final int expiration;
+    final byte[] value;
+
+    RehydrateEntry(String key, int expiration, byte[] value) {
+      this.key = key;
+      this.expiration = expiration;
+      this.value = value;
+    }
+  }
+
+  final File directory;
+  final String clusterName;
+  final MemcachedSinkConnectorConfig config;
+  final Map<TopicPartition, SnapshotSegment> segments = new ConcurrentHashMap<>();
+  final Map<SocketAddress, Long> nodeStartTimes = new HashMap<>();
+  MemcachedClientIF client;
+  NodeLocator locator;
+  ScheduledExecutorService executor;
+
+  String lastTopic;
+  int lastPartition;
+  SnapshotSegment lastSegment;
+
+  KeySnapshot(File directory, String clusterName, MemcachedSinkConnectorConfig config) {
+    this.directory = directory;
+    this.clusterName = clusterName;
+    this.config = config;
+  }
+
+  public void start(MemcachedClientIF client, NodeLocator locator) {
+    if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+      throw new ConnectException(String.format("Could not create snapshot directory %s", this.directory));
+    }
+    log.info("start() - Keeping snapshot for cluster '{}' in {}", this.clusterName, this.directory);
+    this.client = client;
+    this.locator = locator;
+    this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "memcached-snapshot-" + this.clusterName);
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.scheduleWithFixedDelay(
+        this::checkUptime,
+        0L,
+        this.config.snapshotUptimeCheckSecs,
+        TimeUnit.SECONDS
+    );
+  }
+
+  /**
+   * Loads the existing segments of newly assigned partitions. A segment is only kept when it has
+   * been checkpointed at or beyond the offset the partition resumes from.
+   *
+   * @param partitions partitions assigned to the task.
+   * @param offsets    offsets read from memcached. Partitions whose offset could not be read are missing.
+   */
+  public void open(Collection<TopicPartition> partitions, Map<TopicPartition, Long> offsets) {
+    for (TopicPartition topicPartition : partitions) {
+      final File file = file(topicPartition);
+      if (!file.exists()) {
+        continue;
+      }
+      final SnapshotSegment segment = segment(topicPartition);
+      final Long offset = offsets.get(topicPartition);
+      if (null == offset) {
+        log.warn("open() - Discarding {} because the offset for {} could not be read from memcached.", file, topicPartition);
+        discard(topicPartition);
+      } else if (segment.offset < offset) {
+        log.warn(
+            "open() - Discarding {} because it was checkpointed at offset {} and memcached is at offset {}.",
+            file,
+            segment.offset,
+            offset
+        );
+        discard(topicPartition);
+      }
+    }
+  }
+
+  /**
+   * Closes the segments of revoked partitions. The files are kept for when the partition is assigned again.
+   */
+  public void close(Collection<TopicPartition> partitions) {
+    this.lastSegment = null;
+    this.lastTopic = null;
+    for (TopicPartition topicPartition : partitions) {
+      close(this.segments.remove(topicPartition));
+    }
+  }
+
+  private void close(SnapshotSegment segment) {
+    if (null == segment) {
+      return;
+    }
+    try {
+      segment.close();
+    } catch (IOException e) {
+      log.warn("close() - Exception thrown while closing {}", segment.file, e);
+    }
+  }
+
+  void discard(TopicPartition topicPartition) {
+    this.lastSegment = null;
+    this.lastTopic = null;
+    close(this.segments.remove(topicPartition));
+    final File file = file(topicPartition);
+    if (file.exists() && !file.delete()) {
+      throw new ConnectException(String.format("Could not delete snapshot %s", file));
+    }
+  }
+
+  File file(TopicPartition topicPartition) {
+    return new File(this.directory, topicPartition.topic() + "-" + topicPartition.partition() + SUFFIX);
+  }
+
+  private SnapshotSegment segment(TopicPartition topicPartition) {
+    return this.segments.computeIfAbsent(topicPartition, tp -> {
+      try {
+        return new SnapshotSegment(file(tp));
+      } catch (IOException e) {
+        throw new ConnectException(String.format("Exception thrown while opening snapshot for %s", tp), e);
+      }
+    });
+  }
+
+  /**
+   * Records the latest value of the key. A null value records a delete.
+   */
+  public void append(String topic, int partition, String key, byte[] value) {
+    if (null == this.lastSegment || partition != this.lastPartition || !topic.equals(this.lastTopic)) {
+      this.lastSegment = segment(new TopicPartition(topic, partition));
+      this.lastTopic = topic;
+      this.lastPartition = partition;
+    }
+    try {
+      this.lastSegment.append(key, value, System.currentTimeMillis());
+    } catch (IOException e) {
+      throw new ConnectException(String.format("Exception thrown while writing snapshot %s", this.lastSegment.file), e);
+    }
+    if (this.lastSegment.compactionDue()) {
+      compact(this.lastSegment);
+    }
+  }
+
+  private void compact(SnapshotSegment segment) {
+    final Runnable compaction = () -> {
+      try {
+        segment.compact();
+      } catch (ClosedChannelException e) {
+        log.debug("compact() - {} was closed while it was compacted.", segment.file);
+      } catch (IOException e) {
+        log.error("compact() - Exception thrown while compacting {}", segment.file, e);
+      }
+    };
+    if (null == this.executor) {
+      compaction.run();
+    } else {
+      this.executor.execute(compaction);
+    }
+  }
+
+  /**
+   * Records that every record of the partition up to and including the offset has been applied.
+   */
+  public void checkpoint(TopicPartition topicPartition, long offset) {
+    final SnapshotSegment segment = this.segments.get(topicPartition);
+    if (null == segment) {
+      return;
+    }
+    try {
+      segment.checkpoint(offset);
+    } catch (IOException e) {
+      throw new ConnectException(String.format("Exception thrown while writing snapshot %s", segment.file), e);
+    }
+  }
+
+  /**
+   * Writes the entries buffered during the batch to disk.
+   */
+  public void flush() {
+    for (SnapshotSegment segment : this.segments.values()) {
+      try {
+        segment.flush();
+      } catch (IOException e) {
+        throw new ConnectException(String.format("Exception thrown while writing snapshot %s", segment.file), e);
+      }
+    }
+  }
+
+  void checkUptime() {
+    try {
+      final long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+      for (SocketAddress node : restartedNodes(this.client.getStats(), now)) {
+        rehydrate(node);
+      }
+    } catch (RuntimeException e) {
+      log.error("checkUptime() - Exception thrown while checking memcached uptime for cluster '{}'", this.clusterName, e);
+    }
+  }
+
+  /**
+   * Compares the start time of every node, derived from its uptime, with the previous sample.
+   *
+   * @param stats statistics as returned by {@link MemcachedClientIF#getStats()}.
+   * @param now   current time in seconds.
+   * @return the nodes that have restarted since the previous sample.
+   */
+  List<SocketAddress> restartedNodes(Map<SocketAddress, Map<String, String>> stats, long now) {
+    final List<SocketAddress> result = new ArrayList<>();
+    for (Map.Entry<SocketAddress, Map<String, String>> e : stats.entrySet()) {
+      final String uptime = e.getValue().get(UPTIME_STAT);
+      if (null == uptime) {
+        continue;
+      }
+      final long startedAt;
+      try {
+        startedAt = now - Long.parseLong(uptime.trim());
+      } catch (NumberFormatException ex) {
+        log.warn("restartedNodes() - Could not parse uptime '{}' from {}", uptime, e.getKey());
+        continue;
+      }
+      final Long previous = this.nodeStartTimes.put(e.getKey(), startedAt);
+      if (null != previous && startedAt > previous + UPTIME_TOLERANCE_SECS) {
+        log.warn("restartedNodes() - {} in cluster '{}' has restarted.", e.getKey(), this.clusterName);
+        result.add(e.getKey());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Pushes every key the locator maps to the node from the snapshot.
+   */
+  void rehydrate(SocketAddress node) {
+    final long started = System.nanoTime();
+    final int batchSize = this.config.snapshotRehydrateBatchSize;
+    final List<Future<Boolean>> operations = new ArrayList<>(batchSize);
+    final List<RehydrateEntry> entries = new ArrayList<>(batchSize);
+    long expired = 0;
+    long pushed = 0;
+    long failed = 0;
+    for (SnapshotSegment segment : this.segments.values()) {
+      final List<String> keys = new ArrayList<>();
+      for (String key : segment.keys()) {
+        if (node.equals(this.locator.getPrimary(key).getSocketAddress())) {
+          keys.add(key);
+        }
+      }
+      for (int i = 0; i < keys.size(); i += batchSize) {
+        final long now = System.currentTimeMillis();
+        // The values are copied out of the segment so the adds are not issued while holding its lock.
+        entries.clear();
+        try {
+          segment.read(
+              keys.subList(i, Math.min(keys.size(), i + batchSize)),
+              (key, writtenAt, value) -> entries.add(
+                  new RehydrateEntry(key, expiration(this.config.defaultExpirationSecs, writtenAt, now), value)
+              )
+          );
+        } catch (IOException e) {
+          log.error("rehydrate() - Exception thrown while reading snapshot {}", segment.file, e);
+          break;
+        }
+        for (RehydrateEntry entry : entries) {
+          if (EXPIRED == entry.expiration) {
+            expired++;
+          } else {
+            operations.add(this.client.add(entry.key, entry.expiration, entry.value, ByteArrayTranscoder.INSTANCE));
+          }
+        }
+        for (Future<Boolean> operation : operations) {
+          try {
+            operation.get(this.config.opTimeout, TimeUnit.MILLISECONDS);
+            pushed++;
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          } catch (ExecutionException | TimeoutException e) {
+            operation.cancel(true);
+            failed++;
+          }
+        }
+        operations.clear();
+      }
+    }
+    log.info(
+        "rehydrate() - Pushed {} key(s) to {} in cluster '{}' in {} ms. {} key(s) failed. {} key(s) had expired.",
+        pushed,
+        node,
+        this.clusterName,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+        failed,
+        expired
+    );
+  }
+
+  /**
+   * Computes the expiration to push a value with so that it expires when the original write would have.
+   *
+   * @param expirationSecs expiration the value was written with.
+   * @param writtenAt      time in milliseconds since the epoch the value was written.
+   * @param now            current time in milliseconds since the epoch.
+   * @return the expiration to send to memcached or {@link #EXPIRED} if the value has expired.
+   */
+  static int expiration(int expirationSecs, long writtenAt, long now) {
+    if (expirationSecs <= 0) {
+      return expirationSecs;
+    }
+    if (expirationSecs > MAX_RELATIVE_EXPIRATION_SECS) {
+      return TimeUnit.MILLISECONDS.toSeconds(now) < expirationSecs ? expirationSecs : EXPIRED;
+    }
+    final long remaining = writtenAt + TimeUnit.SECONDS.toMillis(expirationSecs) - now;
+    if (remaining <= 0) {
+      return EXPIRED;
+    }
+    return (int) ((remaining + 999L) / 1000L);
+  }
+
+  public void stop() {
+    // Segments are closed first so an interrupted compaction does not close a channel still in use.
+    close(new ArrayList<>(this.segments.keySet()));
+    if (null != this.executor) {
+      this.executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Helpers for exposing task metrics through JMX.
+ */
+class MBeans {
+  private static final Logger log = LoggerFactory.getLogger(MBeans.class);
+  static final String DOMAIN = "com.github.jcustenborder.kafka.connect.memcached";
+
+  private MBeans() {
+  }
+
+  static ObjectName objectName(String type, Map<String, String> tags) {
+    final StringBuilder builder = new StringBuilder(DOMAIN)
+        .append(":type=")
+        .append(type);
+    for (Map.Entry<String, String> e : tags.entrySet()) {
+      builder.append(',')
+          .append(e.getKey())
+          .append('=')
+          .append(quoteIfNeeded(e.getValue()));
+    }
+    try {
+      return new ObjectName(builder.toString());
+    } catch (MalformedObjectNameException e) {
+      throw new IllegalStateException("Could not build ObjectName for " + builder, e);
+    }
+  }
+
+  static String quoteIfNeeded(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      switch (value.charAt(i)) {
+        case ',':
+        case '=':
+        case ':':
+        case '*':
+        case '?':
+        case '"':
+        case '\n':
+          return ObjectName.quote(value);
+        default:
+          break;
+      }
+    }
+    return value;
+  }
+
+  static void register(ObjectName objectName, Object bean) {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(bean, objectName);
+    } catch (JMException e) {
+      log.warn("register() - Could not register {}", objectName, e);
+    }
+  }
+
+  static void unregister(ObjectName objectName) {
+    if (null == objectName) {
+      return;
+    }
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    } catch (JMException e) {
+      log.warn("unregister() - Could not unregister {}", objectName, e);
+    }
+  }
+}
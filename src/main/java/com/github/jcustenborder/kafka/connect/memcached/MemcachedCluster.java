@@ -0,0 +1,469 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.CancelledOperationStatus;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.TimedOutOperationStatus;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntConsumer;
+
+/**
+ * A memcached cluster the task writes to. Each cluster has its own client, circuit breakers and
+ * window of in-flight operations.
+ */
+class MemcachedCluster {
+  private static final Logger log = LoggerFactory.getLogger(MemcachedCluster.class);
+  static final String DEFAULT_NAME = "default";
+
+  final String name;
+  final List<InetSocketAddress> hosts;
+  final MemcachedSinkConnectorConfig config;
+  final List<OperationFuture<Boolean>> pendingOperations = new ArrayList<>();
+  final List<NodeCircuitBreaker> pendingCircuitBreakers = new ArrayList<>();
+  final List<Completion> pendingCompletions = new ArrayList<>();
+  int[] pendingRecords = new int[64];
+  final Set<String> batchKeys = new HashSet<>();
+  ConnectionFactory connectionFactory;
+  MemcachedClient client;
+  NodeLocator locator;
+  Map<SocketAddress, NodeCircuitBreaker> circuitBreakers;
+  NodeReadinessObserver readiness;
+  final Map<String, String> metricsTags;
+  WriteVerifier verifier;
+  ObjectName verifierObjectName;
+  HotKeySketch hotKeys;
+  ObjectName hotKeysObjectName;
+  KeySnapshot snapshot;
+
+  MemcachedCluster(String name, List<InetSocketAddress> hosts, MemcachedSinkConnectorConfig config, Map<String, String> metricsTags) {
+    this.name = name;
+    this.hosts = hosts;
+    this.config = config;
+    this.metricsTags = new LinkedHashMap<>(metricsTags);
+    this.metricsTags.put("cluster", name);
+  }
+
+  /**
+   * Creates the client. The client connects to every host in parallel from its IO thread, use
+   * {@link #awaitReadiness(long)} to wait for the connections.
+   */
+  public void connect() {
+    log.info("connect() - Creating Memcached Client for cluster '{}'", this.name);
+    this.readiness = new NodeReadinessObserver(this.hosts);
+    this.connectionFactory = new ConnectionFactoryBuilder()
+        .setProtocol(this.config.protocol)
+        .setFailureMode(this.config.failureMode)
+        .setUseNagleAlgorithm(this.config.nagleAlgorithmEnabled)
+        .setShouldOptimize(this.config.optimizeEnabled)
+        .setMaxReconnectDelay(this.config.reconnectDelayMax)
+        .setLocatorType(this.config.locator)
+        .setReadBufferSize(this.config.readBufferSize)
+        .setInitialObservers(Collections.singletonList(this.readiness))
+        .build();
+    try {
+      this.client = new MemcachedClient(this.connectionFactory, this.hosts);
+    } catch (IOException e) {
+      throw new ConnectException(
+          "Exception thrown while creating client",
+          e
+      );
+    }
+    this.locator = this.client.getNodeLocator();
+    if (this.config.circuitBreakerEnabled) {
+      this.circuitBreakers = new HashMap<>();
+      for (MemcachedNode node : this.locator.getAll()) {
+        this.circuitBreakers.put(node.getSocketAddress(), new NodeCircuitBreaker(node.getSocketAddress(), this.config));
+      }
+    }
+    if (this.config.verifySampleRatio > 0D) {
+      this.verifier = new WriteVerifier(this.name, this.client, this.config);
+      this.verifier.start();
+      this.verifierObjectName = MBeans.objectName("WriteVerifier", this.metricsTags);
+      MBeans.register(this.verifierObjectName, this.verifier);
+    }
+    if (this.config.hotKeysEnabled) {
+      final NodeLocator locator = this.locator;
+      this.hotKeys = new HotKeySketch(
+          this.config.hotKeysTopK,
+          this.config.hotKeysWindowSecs,
+          key -> locator.getPrimary(key).getSocketAddress().toString(),
+          System.nanoTime()
+      );
+      this.hotKeysObjectName = MBeans.objectName("HotKeys", this.metricsTags);
+      MBeans.register(this.hotKeysObjectName, this.hotKeys);
+    }
+    if (!this.config.snapshotDir.isEmpty()) {
+      final File directory = new File(new File(this.config.snapshotDir, this.metricsTags.get("connector")), this.name);
+      this.snapshot = new KeySnapshot(directory, this.name, this.config);
+      this.snapshot.start(this.client, this.locator);
+    }
+  }
+
+  /**
+   * Waits until the deadline for the client to connect to the memcached hosts. Startup is not
+   * failed if hosts are still missing, they continue to connect in the background.
+   *
+   * @param deadline deadline as returned by {@link System#nanoTime()}.
+   */
+  public void awaitReadiness(long deadline) {
+    final boolean allReady;
+    try {
+      allReady = this.readiness.await(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      throw new ConnectException("Interrupted while waiting for memcached connections", e);
+    }
+    for (InetSocketAddress host : this.hosts) {
+      log.info(
+          "awaitReadiness() - {} in cluster '{}' is {}",
+          host,
+          this.name,
+          this.readiness.isReady(host) ? "ready" : "not ready"
+      );
+    }
+
+    if (!allReady && this.readiness.readyNodes().isEmpty()) {
+      log.warn(
+          "awaitReadiness() - No memcached hosts in cluster '{}' connected within {} ms. Continuing startup.",
+          this.name,
+          this.config.startupTimeout
+      );
+    } else if (!allReady) {
+      log.warn(
+          "awaitReadiness() - {} of {} memcached host(s) in cluster '{}' connected within {} ms. Continuing startup.",
+          this.readiness.readyNodes().size(),
+          this.hosts.size(),
+          this.name,
+          this.config.startupTimeout
+      );
+    }
+    warmUp(deadline);
+  }
+
+  /**
+   * Round trips a version request to every connected node so the first put() does not pay for it.
+   * Nodes that are still connecting are skipped and the wait is bounded by the startup deadline.
+   */
+  void warmUp(long deadline) {
+    final List<MemcachedNode> nodes = new ArrayList<>();
+    for (MemcachedNode node : this.locator.getAll()) {
+      if (this.readiness.isReady(node.getSocketAddress())) {
+        nodes.add(node);
+      }
+    }
+    if (nodes.isEmpty()) {
+      return;
+    }
+    final OperationFactory operationFactory = this.connectionFactory.getOperationFactory();
+    final Map<SocketAddress, String> versions = new ConcurrentHashMap<>();
+    final CountDownLatch latch = this.client.broadcastOp(
+        (node, nodeLatch) -> {
+          final SocketAddress address = node.getSocketAddress();
+          return operationFactory.version(new OperationCallback() {
+            @Override
+            public void receivedStatus(OperationStatus status) {
+              versions.put(address, status.getMessage());
+            }
+
+            @Override
+            public void complete() {
+              nodeLatch.countDown();
+            }
+          });
+        },
+        nodes
+    );
+    try {
+      if (!latch.await(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+        log.warn(
+            "warmUp() - {} of {} node(s) in cluster '{}' did not answer before the startup deadline.",
+            latch.getCount(),
+            nodes.size(),
+            this.name
+        );
+      }
+    } catch (InterruptedException e) {
+      throw new ConnectException("Interrupted while warming up memcached connections", e);
+    }
+    for (Map.Entry<SocketAddress, String> e : versions.entrySet()) {
+      log.debug("warmUp() - {} is running version {}", e.getKey(), e.getValue());
+    }
+  }
+
+  /**
+   * @return the circuit breaker for the node the key is stored on, or null if circuit breakers are disabled.
+   */
+  public NodeCircuitBreaker circuitBreaker(String key) {
+    if (null == this.circuitBreakers) {
+      return null;
+    }
+    final MemcachedNode node = this.locator.getPrimary(key);
+    return this.circuitBreakers.get(node.getSocketAddress());
+  }
+
+  /**
+   * Adds the operation to the in-flight window of this cluster.
+   *
+   * @param index position of the record in the batch passed to put().
+   */
+  public void track(int index, String key, Object value, OperationFuture<Boolean> operation, NodeCircuitBreaker circuitBreaker) {
+    if (null != this.verifier) {
+      this.verifier.stage(key, value);
+    }
+    if (null != this.hotKeys) {
+      this.hotKeys.record(key, valueLength(value), System.nanoTime());
+    }
+    Completion completion = null;
+    if (null != circuitBreaker) {
+      completion = new Completion(System.nanoTime());
+      operation.addListener(completion);
+    }
+    final int size = this.pendingOperations.size();
+    if (size == this.pendingRecords.length) {
+      this.pendingRecords = Arrays.copyOf(this.pendingRecords, size * 2);
+    }
+    this.pendingRecords[size] = index;
+    this.pendingOperations.add(operation);
+    this.pendingCircuitBreakers.add(circuitBreaker);
+    this.pendingCompletions.add(completion);
+  }
+
+  /**
+   * Records a write that was not sent because the circuit for its node is open. The write is
+   * sampled like any other so the loss shows up in the verifier.
+   */
+  public void dropped(String key, Object value) {
+    if (null != this.verifier) {
+      this.verifier.stage(key, value);
+    }
+  }
+
+  /**
+   * @return true the first time the key is seen in the current batch.
+   */
+  public boolean firstInBatch(String key) {
+    return this.batchKeys.add(key);
+  }
+
+  /**
+   * Records the value in the snapshot of the record's topic partition if snapshots are enabled.
+   */
+  public void snapshot(String topic, int partition, String key, byte[] value) {
+    if (null != this.snapshot) {
+      this.snapshot.append(topic, partition, key, value);
+    }
+  }
+
+  /**
+   * Records the offset written to memcached for the partition in the snapshot if snapshots are enabled.
+   */
+  public void checkpoint(TopicPartition topicPartition, long offset) {
+    if (null != this.snapshot) {
+      this.snapshot.checkpoint(topicPartition, offset);
+    }
+  }
+
+  /**
+   * Stamps the time an operation completed on the spymemcached IO thread. The outcome itself is
+   * recorded on the task thread in {@link #awaitOperations(long)} so the circuit state is current
+   * before put() returns.
+   */
+  static final class Completion implements OperationCompletionListener {
+    final long dispatched;
+    volatile long completed;
+
+    Completion(long dispatched) {
+      this.dispatched = dispatched;
+    }
+
+    @Override
+    public void onComplete(OperationFuture<?> future) {
+      this.completed = System.nanoTime();
+    }
+
+    long latency(long now) {
+      final long completed = this.completed;
+      return (0L == completed ? now : completed) - this.dispatched;
+    }
+  }
+
+  static int valueLength(Object value) {
+    return value instanceof byte[] ? ((byte[]) value).length : 0;
+  }
+
+  static boolean isNodeFailure(OperationFuture<?> future) {
+    if (future.isCancelled()) {
+      return true;
+    }
+    final OperationStatus status = future.getStatus();
+    return status instanceof TimedOutOperationStatus || status instanceof CancelledOperationStatus;
+  }
+
+  /**
+   * Waits for the in-flight operations of this cluster. Operations for a node whose circuit has
+   * opened are cancelled without waiting so that a single sick node cannot hold up the batch. When
+   * circuit breakers are enabled an operation is only waited on until the slow call threshold of
+   * its node has passed. An operation that is still outstanding at that point opens the circuit.
+   * Operations cancelled because their circuit opened are handed to the parked consumer instead of
+   * failing the batch.
+   *
+   * @param deadline deadline as returned by {@link System#nanoTime()}.
+   * @param parked   receives the batch index of every record whose operation was cancelled by its circuit.
+   * @return the first exception encountered or null if every other operation completed.
+   */
+  public Exception awaitOperations(long deadline, IntConsumer parked) {
+    if (null != this.snapshot) {
+      this.snapshot.flush();
+    }
+    Exception failure = null;
+    boolean parkedAny = false;
+    for (int i = 0; i < this.pendingOperations.size(); i++) {
+      final OperationFuture<Boolean> operation = this.pendingOperations.get(i);
+      final NodeCircuitBreaker circuitBreaker = this.pendingCircuitBreakers.get(i);
+      final Completion completion = this.pendingCompletions.get(i);
+      if (null != circuitBreaker && NodeCircuitBreaker.State.OPEN == circuitBreaker.state() && !operation.isDone()) {
+        operation.cancel(true);
+        parked.accept(this.pendingRecords[i]);
+        parkedAny = true;
+        continue;
+      }
+      boolean nodeFailure;
+      boolean timedOut = false;
+      try {
+        long timeout = deadline - System.nanoTime();
+        if (null != circuitBreaker) {
+          timeout = Math.min(timeout, completion.dispatched + circuitBreaker.slowCallNanos - System.nanoTime());
+        }
+        operation.get(Math.max(0L, timeout), TimeUnit.NANOSECONDS);
+        nodeFailure = isNodeFailure(operation);
+      } catch (TimeoutException e) {
+        operation.cancel(true);
+        nodeFailure = true;
+        timedOut = true;
+        if (null == circuitBreaker && null == failure) {
+          failure = e;
+        }
+      } catch (InterruptedException | ExecutionException e) {
+        operation.cancel(true);
+        nodeFailure = true;
+        if (null == failure) {
+          failure = e;
+        }
+      }
+      if (null != circuitBreaker) {
+        final long now = System.nanoTime();
+        if (timedOut) {
+          circuitBreaker.recordTimeout(now);
+          parked.accept(this.pendingRecords[i]);
+          parkedAny = true;
+        } else if (nodeFailure) {
+          circuitBreaker.recordFailure(completion.latency(now), now);
+        } else {
+          circuitBreaker.recordSuccess(completion.latency(now), now);
+        }
+      }
+    }
+    if (null == failure && !parkedAny) {
+      this.pendingOperations.clear();
+      this.pendingCircuitBreakers.clear();
+      this.pendingCompletions.clear();
+      this.batchKeys.clear();
+      if (null != this.verifier) {
+        this.verifier.commitStaged();
+      }
+    } else {
+      discardPending();
+    }
+    return failure;
+  }
+
+  /**
+   * Forgets the operations tracked for a batch that failed or parked records. The staged samples
+   * are discarded as they may refer to writes that never happened. Operations that were already
+   * sent are not cancelled, they are written again when the records are redelivered.
+   */
+  public void discardPending() {
+    this.pendingOperations.clear();
+    this.pendingCircuitBreakers.clear();
+    this.pendingCompletions.clear();
+    this.batchKeys.clear();
+    if (null != this.verifier) {
+      this.verifier.discardStaged();
+    }
+  }
+
+  /**
+   * @return nanoseconds until every open circuit in this cluster allows a probe.
+   */
+  public long remainingOpenNanos(long now) {
+    long result = 0L;
+    if (null != this.circuitBreakers) {
+      for (NodeCircuitBreaker circuitBreaker : this.circuitBreakers.values()) {
+        result = Math.max(result, circuitBreaker.remainingOpenNanos(now));
+      }
+    }
+    return result;
+  }
+
+  public void stop() {
+    if (null != this.snapshot) {
+      this.snapshot.stop();
+    }
+    if (null != this.hotKeys) {
+      MBeans.unregister(this.hotKeysObjectName);
+    }
+    if (null != this.verifier) {
+      MBeans.unregister(this.verifierObjectName);
+      this.verifier.stop();
+    }
+    if (null != this.client) {
+      log.info("stop() - Shutting down client for cluster '{}'", this.name);
+      this.client.shutdown();
+    }
+  }
+}
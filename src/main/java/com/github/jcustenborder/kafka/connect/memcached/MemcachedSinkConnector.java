@@ -18,21 +18,25 @@ package com.github.jcustenborder.kafka.connect.memcached;
 import com.github.jcustenborder.kafka.connect.utils.VersionUtil;
 import com.github.jcustenborder.kafka.connect.utils.config.Description;
 import com.github.jcustenborder.kafka.connect.utils.config.DocumentationNote;
-import com.github.jcustenborder.kafka.connect.utils.config.TaskConfigs;
 import com.github.jcustenborder.kafka.connect.utils.config.Title;
+import org.apache.kafka.common.config.Config;
 import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigValue;
 import org.apache.kafka.connect.connector.Task;
 import org.apache.kafka.connect.sink.SinkConnector;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 @Title("Memcached Sink")
 @Description("The Memcached Sink provides a :term:`Sink Connector` that can write data in real time to a memcached " +
     "environment.")
-@DocumentationNote("This connector expects that the key will be a string and the value will be a byte representation of " +
+@DocumentationNote("This connector expects that the key will be a string and the value will be a byte[] or ByteBuffer representation of " +
     "the message. Your data might not be formatted like this. Take a look at transformations to apply the convert the " +
-    "data to the proper format.")
+    "data to the proper format. When `memcached.write.mode` is `DELETE` or `TOUCH` only the key is used, set " +
+    "`value.converter` to `org.apache.kafka.connect.converters.ByteArrayConverter` so values are not deserialized either.")
 public class MemcachedSinkConnector extends SinkConnector {
   @Override
   public String version() {
@@ -55,7 +59,14 @@ public class MemcachedSinkConnector extends SinkConnector {
 
   @Override
   public List<Map<String, String>> taskConfigs(int taskCount) {
-    return TaskConfigs.multiple(this.settings, taskCount);
+    // The task id keeps JMX names stable across task restarts.
+    final List<Map<String, String>> taskConfigs = new ArrayList<>(taskCount);
+    for (int i = 0; i < taskCount; i++) {
+      final Map<String, String> taskConfig = new LinkedHashMap<>(this.settings);
+      taskConfig.put(MemcachedSinkTask.TASK_ID_CONF, Integer.toString(i));
+      taskConfigs.add(taskConfig);
+    }
+    return taskConfigs;
   }
 
   @Override
@@ -67,4 +78,23 @@ public class MemcachedSinkConnector extends SinkConnector {
   public ConfigDef config() {
     return MemcachedSinkConnectorConfig.config();
   }
+
+  /**
+   * Also validates the {@code memcached.cluster.<name>.*} settings of every configured cluster,
+   * which cannot be part of the static {@link ConfigDef}.
+   */
+  @Override
+  public Config validate(Map<String, String> settings) {
+    final Config result = super.validate(settings);
+    final List<ConfigValue> configValues = new ArrayList<>(result.configValues());
+    final String clusters = settings.get(MemcachedSinkConnectorConfig.CLUSTERS_CONF);
+    if (null != clusters) {
+      for (String clusterName : clusters.split(",")) {
+        if (!clusterName.trim().isEmpty()) {
+          configValues.addAll(ClusterConfig.config(clusterName.trim()).validate(settings));
+        }
+      }
+    }
+    return new Config(configValues);
+  }
 }
@@ -25,9 +25,12 @@ import net.spy.memcached.ConnectionFactoryBuilder;
 import net.spy.memcached.FailureMode;
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -98,6 +101,169 @@ class MemcachedSinkConnectorConfig extends AbstractConfig {
   static final String DEFAULT_EXPIRATION_SECS_DOC = "The default expiration in seconds.";
   static final int DEFAULT_EXPIRATION_SECS_DEFAULT = 0;
 
+  public static final String STARTUP_TIMEOUT_CONF = "memcached.startup.timeout.msecs";
+  static final String STARTUP_TIMEOUT_DOC = "The maximum time in milliseconds that the task will wait during startup " +
+      "for connections to all of the memcached hosts to be established. Connections are established in parallel. Hosts " +
+      "that are not connected when this deadline passes continue to be connected in the background.";
+  static final Long STARTUP_TIMEOUT_DEFAULT = TimeUnit.SECONDS.toMillis(10);
+
+  public static final String KEY_TEMPLATE_CONF = "memcached.key.template";
+  static final String KEY_TEMPLATE_DOC = "Template used to build the memcached key for each record. The following " +
+      "placeholders are supported: `${key}` the record key, `${topic}` the topic of the record, `${partition}` the " +
+      "partition of the record, `${key.<field>}` a field of a Struct or Map record key, and `${header.<name>}` the " +
+      "value of the last header with the given name. Byte array values are hex encoded. For example " +
+      "`${topic}:${key.id}`.";
+  static final String KEY_TEMPLATE_DEFAULT = "${key}";
+
+  public static final String KEY_HASH_ENABLED_CONF = "memcached.key.hash.enabled";
+  static final String KEY_HASH_ENABLED_DOC = "Flag to determine if keys that memcached cannot store, because they are " +
+      "longer than 250 bytes or contain whitespace or control characters when using the text protocol, are replaced " +
+      "with `h:` followed by a hex encoded digest of the key. Keys that already start with `h:` are hashed as well. " +
+      "When disabled these keys are handled by `memcached.key.invalid.behavior`.";
+  static final boolean KEY_HASH_ENABLED_DEFAULT = true;
+
+  public static final String KEY_HASH_ALGORITHM_CONF = "memcached.key.hash.algorithm";
+  static final String KEY_HASH_ALGORITHM_DOC = "The message digest algorithm used to hash keys that memcached cannot store.";
+  static final String KEY_HASH_ALGORITHM_DEFAULT = "SHA-256";
+
+  public static final String KEY_INVALID_BEHAVIOR_CONF = "memcached.key.invalid.behavior";
+  static final String KEY_INVALID_BEHAVIOR_DOC = "The action to take when a key cannot be built for a record. " +
+      ConfigUtils.enumDescription(
+          ImmutableMap.of(
+              InvalidKeyBehavior.FAIL, "Fail the task.",
+              InvalidKeyBehavior.LOG, "Log the record and continue with the rest of the batch.",
+              InvalidKeyBehavior.IGNORE, "Silently skip the record."
+          )
+      );
+  static final String KEY_INVALID_BEHAVIOR_DEFAULT = InvalidKeyBehavior.FAIL.name();
+
+  enum InvalidKeyBehavior {
+    FAIL,
+    LOG,
+    IGNORE
+  }
+
+  public static final String CIRCUIT_BREAKER_ENABLED_CONF = "memcached.circuit.breaker.enabled";
+  static final String CIRCUIT_BREAKER_ENABLED_DOC = "Flag to enable a circuit breaker per memcached node. When the " +
+      "circuit for a node is open, records for that node are not sent. With the `Cancel` failure mode they are " +
+      "dropped. Otherwise they are parked: each partition with a parked record is rewound to its first parked " +
+      "record and paused until the circuit allows a probe. Records for healthy nodes are written and the offsets of " +
+      "partitions without parked records are committed in either case.";
+  static final boolean CIRCUIT_BREAKER_ENABLED_DEFAULT = false;
+
+  public static final String CIRCUIT_BREAKER_WINDOW_SIZE_CONF = "memcached.circuit.breaker.window.size";
+  static final String CIRCUIT_BREAKER_WINDOW_SIZE_DOC = "The number of most recent operations per node used to " +
+      "calculate the error rate and latency percentiles.";
+  static final int CIRCUIT_BREAKER_WINDOW_SIZE_DEFAULT = 20;
+
+  public static final String CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD_CONF = "memcached.circuit.breaker.failure.rate.threshold";
+  static final String CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD_DOC = "The ratio of failed or timed out operations in " +
+      "the window at which the circuit for a node is opened.";
+  static final double CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD_DEFAULT = 0.5D;
+
+  public static final String CIRCUIT_BREAKER_SLOW_CALL_CONF = "memcached.circuit.breaker.slow.call.msecs";
+  static final String CIRCUIT_BREAKER_SLOW_CALL_DOC = "The p99 operation latency in milliseconds at which the circuit " +
+      "for a node is opened. An operation that has not completed within this time opens the circuit straight away " +
+      "and the batch stops waiting for it.";
+  static final long CIRCUIT_BREAKER_SLOW_CALL_DEFAULT = 1000L;
+
+  public static final String CIRCUIT_BREAKER_OPEN_CONF = "memcached.circuit.breaker.open.msecs";
+  static final String CIRCUIT_BREAKER_OPEN_DOC = "The time in milliseconds that a circuit stays open before a probe " +
+      "operation is sent to the node.";
+  static final long CIRCUIT_BREAKER_OPEN_DEFAULT = TimeUnit.SECONDS.toMillis(10);
+
+  public static final String CLUSTERS_CONF = "memcached.clusters";
+  static final String CLUSTERS_DOC = "Names of additional memcached clusters to route records to. Each cluster is " +
+      "configured with `memcached.cluster.<name>.hosts` and one or more routing rules: " +
+      "`memcached.cluster.<name>.topics.regex` matches the topic of the record, `memcached.cluster.<name>.header.name` " +
+      "matches records that have the header, optionally with the value `memcached.cluster.<name>.header.value` " +
+      "(byte[] header values are decoded as UTF-8), and " +
+      "`memcached.cluster.<name>.key.prefix` matches keys that start with the prefix before they are hashed. A record is routed to the first " +
+      "cluster in this list where all of the configured rules match. Records that do not match any cluster are " +
+      "written to `memcached.hosts`, which is also where offsets are stored. All clusters share the " +
+      "remaining connection settings.";
+  static final List<String> CLUSTERS_DEFAULT = Collections.emptyList();
+
+  public static final String VERIFY_SAMPLE_RATIO_CONF = "memcached.verify.sample.ratio";
+  static final String VERIFY_SAMPLE_RATIO_DOC = "The fraction of acknowledged writes that are read back from memcached " +
+      "to verify they are still present. The hit ratio, misses and mismatches are exposed through JMX. Set to 0 to " +
+      "disable verification.";
+  static final double VERIFY_SAMPLE_RATIO_DEFAULT = 0D;
+
+  public static final String VERIFY_DELAY_CONF = "memcached.verify.delay.msecs";
+  static final String VERIFY_DELAY_DOC = "The time in milliseconds after a sampled write is acknowledged before it is " +
+      "read back. Keys that expire before this delay will be reported as misses.";
+  static final long VERIFY_DELAY_DEFAULT = TimeUnit.MINUTES.toMillis(1);
+
+  public static final String VERIFY_BATCH_SIZE_CONF = "memcached.verify.batch.size";
+  static final String VERIFY_BATCH_SIZE_DOC = "The maximum number of samples read back with a single bulk get.";
+  static final int VERIFY_BATCH_SIZE_DEFAULT = 100;
+
+  public static final String VERIFY_MAX_PENDING_CONF = "memcached.verify.max.pending";
+  static final String VERIFY_MAX_PENDING_DOC = "The maximum number of samples waiting to be verified per cluster. " +
+      "Writes are not sampled while this many samples are pending.";
+  static final int VERIFY_MAX_PENDING_DEFAULT = 10000;
+
+  public static final String HOT_KEYS_ENABLED_CONF = "memcached.hot.keys.enabled";
+  static final String HOT_KEYS_ENABLED_DOC = "Flag to enable tracking of the most frequently written keys. Write and " +
+      "byte rates are estimated with a fixed size sketch and the top keys per cluster are exposed through JMX along " +
+      "with the node each key is stored on.";
+  static final boolean HOT_KEYS_ENABLED_DEFAULT = false;
+
+  public static final String HOT_KEYS_TOP_K_CONF = "memcached.hot.keys.top.k";
+  static final String HOT_KEYS_TOP_K_DOC = "The number of hot keys to report per cluster.";
+  static final int HOT_KEYS_TOP_K_DEFAULT = 20;
+
+  public static final String HOT_KEYS_WINDOW_CONF = "memcached.hot.keys.window.secs";
+  static final String HOT_KEYS_WINDOW_DOC = "The length of the window in seconds over which write rates are measured.";
+  static final long HOT_KEYS_WINDOW_DEFAULT = 60L;
+
+  public static final String ENCODING_THREADS_CONF = "memcached.encoding.threads";
+  static final String ENCODING_THREADS_DOC = "The number of threads used to build keys and prepare values before records " +
+      "are dispatched. Records are still dispatched in their original order. Set to 0 to encode on the task thread.";
+  static final int ENCODING_THREADS_DEFAULT = 0;
+
+  public static final String ENCODING_PARALLEL_THRESHOLD_CONF = "memcached.encoding.parallel.threshold";
+  static final String ENCODING_PARALLEL_THRESHOLD_DOC = "The minimum number of records in a batch before it is " +
+      "encoded by the encoding threads. Smaller batches are encoded on the task thread.";
+  static final int ENCODING_PARALLEL_THRESHOLD_DEFAULT = 1024;
+
+  public static final String WRITE_MODE_CONF = "memcached.write.mode";
+  static final String WRITE_MODE_DOC = "The operation each record is turned into. " +
+      ConfigUtils.enumDescription(
+          ImmutableMap.of(
+              WriteMode.SET, "Store the record value under the key. Records with a null value delete the key.",
+              WriteMode.DELETE, "Delete the key. The record value is ignored and never sent to memcached.",
+              WriteMode.TOUCH, "Reset the expiration of the key to `" + DEFAULT_EXPIRATION_SECS_CONF +
+                  "`. The record value is ignored and never sent to memcached."
+          )
+      ) + " In the delete and touch modes each key is sent at most once per batch.";
+  static final String WRITE_MODE_DEFAULT = WriteMode.SET.name();
+
+  enum WriteMode {
+    SET,
+    DELETE,
+    TOUCH
+  }
+
+  public static final String SNAPSHOT_DIR_CONF = "memcached.snapshot.dir";
+  static final String SNAPSHOT_DIR_DOC = "Directory where the latest value of every key is kept in a compacted " +
+      "snapshot per topic partition. When a memcached node restarts, the keys it owns under the configured locator " +
+      "are pushed again from the snapshot instead of replaying the topics. Values whose expiration has passed are " +
+      "skipped. The snapshot of a partition is discarded when it is assigned again and memcached holds a newer offset " +
+      "for it. Snapshots are disabled when empty.";
+  static final String SNAPSHOT_DIR_DEFAULT = "";
+
+  public static final String SNAPSHOT_UPTIME_CHECK_CONF = "memcached.snapshot.uptime.check.secs";
+  static final String SNAPSHOT_UPTIME_CHECK_DOC = "The interval in seconds at which the uptime reported by " +
+      "`stats` is checked on every node to detect restarts.";
+  static final int SNAPSHOT_UPTIME_CHECK_DEFAULT = 10;
+
+  public static final String SNAPSHOT_REHYDRATE_BATCH_SIZE_CONF = "memcached.snapshot.rehydrate.batch.size";
+  static final String SNAPSHOT_REHYDRATE_BATCH_SIZE_DOC = "The number of keys read from the snapshot and pushed to " +
+      "a restarted node before waiting for the node to acknowledge them.";
+  static final int SNAPSHOT_REHYDRATE_BATCH_SIZE_DEFAULT = 1000;
+
   public static final String HOSTS_CONF = "memcached.hosts";
   static final String HOSTS_DOC = "Memcached hosts to connect to.";
   static final List<String> HOSTS_DEFAULT = Arrays.asList("localhost:11211");
@@ -113,6 +279,30 @@ class MemcachedSinkConnectorConfig extends AbstractConfig {
   public final int defaultExpirationSecs;
   public final List<InetSocketAddress> hosts;
   public final long opTimeout;
+  public final long startupTimeout;
+  public final String keyTemplate;
+  public final boolean keyHashEnabled;
+  public final String keyHashAlgorithm;
+  public final InvalidKeyBehavior keyInvalidBehavior;
+  public final boolean circuitBreakerEnabled;
+  public final int circuitBreakerWindowSize;
+  public final double circuitBreakerFailureRateThreshold;
+  public final long circuitBreakerSlowCallMs;
+  public final long circuitBreakerOpenMs;
+  public final List<ClusterConfig> clusters;
+  public final double verifySampleRatio;
+  public final long verifyDelayMs;
+  public final int verifyBatchSize;
+  public final int verifyMaxPending;
+  public final boolean hotKeysEnabled;
+  public final int hotKeysTopK;
+  public final long hotKeysWindowSecs;
+  public final int encodingThreads;
+  public final int encodingParallelThreshold;
+  public final WriteMode writeMode;
+  public final String snapshotDir;
+  public final int snapshotUptimeCheckSecs;
+  public final int snapshotRehydrateBatchSize;
 
 
   public MemcachedSinkConnectorConfig(Map<String, String> settings) {
@@ -128,6 +318,58 @@ class MemcachedSinkConnectorConfig extends AbstractConfig {
     this.defaultExpirationSecs = getInt(DEFAULT_EXPIRATION_SECS_CONF);
     this.hosts = ConfigUtils.inetSocketAddresses(this, HOSTS_CONF);
     this.opTimeout = getLong(OP_TIME_TIMEOUT_CONF);
+    this.startupTimeout = getLong(STARTUP_TIMEOUT_CONF);
+    this.keyTemplate = getString(KEY_TEMPLATE_CONF);
+    this.keyHashEnabled = getBoolean(KEY_HASH_ENABLED_CONF);
+    this.keyHashAlgorithm = getString(KEY_HASH_ALGORITHM_CONF);
+    this.keyInvalidBehavior = ConfigUtils.getEnum(InvalidKeyBehavior.class, this, KEY_INVALID_BEHAVIOR_CONF);
+    this.circuitBreakerEnabled = getBoolean(CIRCUIT_BREAKER_ENABLED_CONF);
+    this.circuitBreakerWindowSize = getInt(CIRCUIT_BREAKER_WINDOW_SIZE_CONF);
+    this.circuitBreakerFailureRateThreshold = getDouble(CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD_CONF);
+    this.circuitBreakerSlowCallMs = getLong(CIRCUIT_BREAKER_SLOW_CALL_CONF);
+    this.circuitBreakerOpenMs = getLong(CIRCUIT_BREAKER_OPEN_CONF);
+    final List<String> clusterNames = getList(CLUSTERS_CONF);
+    final Set<String> uniqueClusterNames = new LinkedHashSet<>(clusterNames);
+    if (uniqueClusterNames.size() != clusterNames.size() || uniqueClusterNames.contains(MemcachedCluster.DEFAULT_NAME)) {
+      throw new ConfigException(
+          CLUSTERS_CONF,
+          clusterNames,
+          "Cluster names must be unique and cannot be '" + MemcachedCluster.DEFAULT_NAME + "'."
+      );
+    }
+    final List<ClusterConfig> clusters = new ArrayList<>(clusterNames.size());
+    for (String clusterName : clusterNames) {
+      clusters.add(ClusterConfig.of(clusterName, originals()));
+    }
+    this.clusters = Collections.unmodifiableList(clusters);
+    this.verifySampleRatio = getDouble(VERIFY_SAMPLE_RATIO_CONF);
+    this.verifyDelayMs = getLong(VERIFY_DELAY_CONF);
+    this.verifyBatchSize = getInt(VERIFY_BATCH_SIZE_CONF);
+    this.verifyMaxPending = getInt(VERIFY_MAX_PENDING_CONF);
+    this.hotKeysEnabled = getBoolean(HOT_KEYS_ENABLED_CONF);
+    this.hotKeysTopK = getInt(HOT_KEYS_TOP_K_CONF);
+    this.hotKeysWindowSecs = getLong(HOT_KEYS_WINDOW_CONF);
+    this.encodingThreads = getInt(ENCODING_THREADS_CONF);
+    this.encodingParallelThreshold = getInt(ENCODING_PARALLEL_THRESHOLD_CONF);
+    this.writeMode = ConfigUtils.getEnum(WriteMode.class, this, WRITE_MODE_CONF);
+    this.snapshotDir = getString(SNAPSHOT_DIR_CONF);
+    this.snapshotUptimeCheckSecs = getInt(SNAPSHOT_UPTIME_CHECK_CONF);
+    this.snapshotRehydrateBatchSize = getInt(SNAPSHOT_REHYDRATE_BATCH_SIZE_CONF);
+  }
+
+  static class KeyTemplateValidator implements ConfigDef.Validator {
+    @Override
+    public void ensureValid(String name, Object value) {
+      if (null != value) {
+        KeyBuilder.parse((String) value);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "A template made of literals and `${key}`, `${topic}`, `${partition}`, `${key.<field>}` or " +
+          "`${header.<name>}` placeholders.";
+    }
   }
 
   static class EnumRecommender implements ConfigDef.Recommender {
@@ -168,6 +410,14 @@ class MemcachedSinkConnectorConfig extends AbstractConfig {
   }
 
   static final String GROUP_CONNNECTION = "Connection";
+  static final String GROUP_KEYS = "Keys";
+  static final String GROUP_CIRCUIT_BREAKER = "Circuit Breaker";
+  static final String GROUP_ROUTING = "Routing";
+  static final String GROUP_VERIFICATION = "Verification";
+  static final String GROUP_HOT_KEYS = "Hot Keys";
+  static final String GROUP_ENCODING = "Encoding";
+  static final String GROUP_WRITE_MODE = "Write Mode";
+  static final String GROUP_SNAPSHOT = "Snapshot";
 
   static ConfigDef config() {
     return new ConfigDef()
@@ -241,6 +491,16 @@ class MemcachedSinkConnectorConfig extends AbstractConfig {
                 .validator(ConfigDef.Range.atLeast(-1))
                 .build()
         )
+        .define(
+            ConfigKeyBuilder.of(STARTUP_TIMEOUT_CONF, ConfigDef.Type.LONG)
+                .group(GROUP_CONNNECTION)
+                .displayName("Startup timeout")
+                .defaultValue(STARTUP_TIMEOUT_DEFAULT)
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(STARTUP_TIMEOUT_DOC)
+                .validator(ConfigDef.Range.atLeast(0))
+                .build()
+        )
         .define(
             ConfigKeyBuilder.of(LOCATOR_TYPE_CONF, ConfigDef.Type.STRING)
                 .group(GROUP_CONNNECTION)
@@ -271,6 +531,233 @@ class MemcachedSinkConnectorConfig extends AbstractConfig {
                 .importance(ConfigDef.Importance.LOW)
                 .documentation(DEFAULT_EXPIRATION_SECS_DOC)
                 .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(KEY_TEMPLATE_CONF, ConfigDef.Type.STRING)
+                .group(GROUP_KEYS)
+                .displayName("Key template")
+                .defaultValue(KEY_TEMPLATE_DEFAULT)
+                .validator(new KeyTemplateValidator())
+                .importance(ConfigDef.Importance.MEDIUM)
+                .documentation(KEY_TEMPLATE_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(KEY_HASH_ENABLED_CONF, ConfigDef.Type.BOOLEAN)
+                .group(GROUP_KEYS)
+                .displayName("Hash invalid keys")
+                .defaultValue(KEY_HASH_ENABLED_DEFAULT)
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(KEY_HASH_ENABLED_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(KEY_HASH_ALGORITHM_CONF, ConfigDef.Type.STRING)
+                .group(GROUP_KEYS)
+                .displayName("Key hash algorithm")
+                .defaultValue(KEY_HASH_ALGORITHM_DEFAULT)
+                .validator(ConfigDef.ValidString.in("MD5", "SHA-1", "SHA-256", "SHA-512"))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(KEY_HASH_ALGORITHM_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(KEY_INVALID_BEHAVIOR_CONF, ConfigDef.Type.STRING)
+                .group(GROUP_KEYS)
+                .displayName("Invalid key behavior")
+                .defaultValue(KEY_INVALID_BEHAVIOR_DEFAULT)
+                .validator(ValidEnum.of(InvalidKeyBehavior.class))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(KEY_INVALID_BEHAVIOR_DOC)
+                .recommender(EnumRecommender.of(InvalidKeyBehavior.class))
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(CIRCUIT_BREAKER_ENABLED_CONF, ConfigDef.Type.BOOLEAN)
+                .group(GROUP_CIRCUIT_BREAKER)
+                .displayName("Circuit breaker enabled")
+                .defaultValue(CIRCUIT_BREAKER_ENABLED_DEFAULT)
+                .importance(ConfigDef.Importance.MEDIUM)
+                .documentation(CIRCUIT_BREAKER_ENABLED_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(CIRCUIT_BREAKER_WINDOW_SIZE_CONF, ConfigDef.Type.INT)
+                .group(GROUP_CIRCUIT_BREAKER)
+                .displayName("Window size")
+                .defaultValue(CIRCUIT_BREAKER_WINDOW_SIZE_DEFAULT)
+                .validator(ConfigDef.Range.atLeast(1))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(CIRCUIT_BREAKER_WINDOW_SIZE_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD_CONF, ConfigDef.Type.DOUBLE)
+                .group(GROUP_CIRCUIT_BREAKER)
+                .displayName("Failure rate threshold")
+                .defaultValue(CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD_DEFAULT)
+                .validator(ConfigDef.Range.between(0D, 1D))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(CIRCUIT_BREAKER_SLOW_CALL_CONF, ConfigDef.Type.LONG)
+                .group(GROUP_CIRCUIT_BREAKER)
+                .displayName("Slow call threshold")
+                .defaultValue(CIRCUIT_BREAKER_SLOW_CALL_DEFAULT)
+                .validator(ConfigDef.Range.atLeast(1))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(CIRCUIT_BREAKER_SLOW_CALL_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(CIRCUIT_BREAKER_OPEN_CONF, ConfigDef.Type.LONG)
+                .group(GROUP_CIRCUIT_BREAKER)
+                .displayName("Open duration")
+                .defaultValue(CIRCUIT_BREAKER_OPEN_DEFAULT)
+                .validator(ConfigDef.Range.atLeast(0))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(CIRCUIT_BREAKER_OPEN_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(CLUSTERS_CONF, ConfigDef.Type.LIST)
+                .group(GROUP_ROUTING)
+                .displayName("Clusters")
+                .defaultValue(CLUSTERS_DEFAULT)
+                .importance(ConfigDef.Importance.MEDIUM)
+                .documentation(CLUSTERS_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(VERIFY_SAMPLE_RATIO_CONF, ConfigDef.Type.DOUBLE)
+                .group(GROUP_VERIFICATION)
+                .displayName("Sample ratio")
+                .defaultValue(VERIFY_SAMPLE_RATIO_DEFAULT)
+                .validator(ConfigDef.Range.between(0D, 1D))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(VERIFY_SAMPLE_RATIO_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(VERIFY_DELAY_CONF, ConfigDef.Type.LONG)
+                .group(GROUP_VERIFICATION)
+                .displayName("Delay")
+                .defaultValue(VERIFY_DELAY_DEFAULT)
+                .validator(ConfigDef.Range.atLeast(0))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(VERIFY_DELAY_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(VERIFY_BATCH_SIZE_CONF, ConfigDef.Type.INT)
+                .group(GROUP_VERIFICATION)
+                .displayName("Batch size")
+                .defaultValue(VERIFY_BATCH_SIZE_DEFAULT)
+                .validator(ConfigDef.Range.atLeast(1))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(VERIFY_BATCH_SIZE_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(VERIFY_MAX_PENDING_CONF, ConfigDef.Type.INT)
+                .group(GROUP_VERIFICATION)
+                .displayName("Max pending")
+                .defaultValue(VERIFY_MAX_PENDING_DEFAULT)
+                .validator(ConfigDef.Range.atLeast(1))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(VERIFY_MAX_PENDING_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(HOT_KEYS_ENABLED_CONF, ConfigDef.Type.BOOLEAN)
+                .group(GROUP_HOT_KEYS)
+                .displayName("Hot keys enabled")
+                .defaultValue(HOT_KEYS_ENABLED_DEFAULT)
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(HOT_KEYS_ENABLED_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(HOT_KEYS_TOP_K_CONF, ConfigDef.Type.INT)
+                .group(GROUP_HOT_KEYS)
+                .displayName("Top keys")
+                .defaultValue(HOT_KEYS_TOP_K_DEFAULT)
+                .validator(ConfigDef.Range.between(1, 1000))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(HOT_KEYS_TOP_K_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(HOT_KEYS_WINDOW_CONF, ConfigDef.Type.LONG)
+                .group(GROUP_HOT_KEYS)
+                .displayName("Window")
+                .defaultValue(HOT_KEYS_WINDOW_DEFAULT)
+                .validator(ConfigDef.Range.atLeast(1))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(HOT_KEYS_WINDOW_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(ENCODING_THREADS_CONF, ConfigDef.Type.INT)
+                .group(GROUP_ENCODING)
+                .displayName("Encoding threads")
+                .defaultValue(ENCODING_THREADS_DEFAULT)
+                .validator(ConfigDef.Range.between(0, 256))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(ENCODING_THREADS_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(ENCODING_PARALLEL_THRESHOLD_CONF, ConfigDef.Type.INT)
+                .group(GROUP_ENCODING)
+                .displayName("Parallel threshold")
+                .defaultValue(ENCODING_PARALLEL_THRESHOLD_DEFAULT)
+                .validator(ConfigDef.Range.atLeast(1))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(ENCODING_PARALLEL_THRESHOLD_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(WRITE_MODE_CONF, ConfigDef.Type.STRING)
+                .group(GROUP_WRITE_MODE)
+                .displayName("Write mode")
+                .defaultValue(WRITE_MODE_DEFAULT)
+                .validator(ValidEnum.of(WriteMode.class))
+                .importance(ConfigDef.Importance.MEDIUM)
+                .documentation(WRITE_MODE_DOC)
+                .recommender(EnumRecommender.of(WriteMode.class))
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(SNAPSHOT_DIR_CONF, ConfigDef.Type.STRING)
+                .group(GROUP_SNAPSHOT)
+                .displayName("Snapshot directory")
+                .defaultValue(SNAPSHOT_DIR_DEFAULT)
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(SNAPSHOT_DIR_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(SNAPSHOT_UPTIME_CHECK_CONF, ConfigDef.Type.INT)
+                .group(GROUP_SNAPSHOT)
+                .displayName("Uptime check interval")
+                .defaultValue(SNAPSHOT_UPTIME_CHECK_DEFAULT)
+                .validator(ConfigDef.Range.atLeast(1))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(SNAPSHOT_UPTIME_CHECK_DOC)
+                .build()
+        )
+        .define(
+            ConfigKeyBuilder.of(SNAPSHOT_REHYDRATE_BATCH_SIZE_CONF, ConfigDef.Type.INT)
+                .group(GROUP_SNAPSHOT)
+                .displayName("Rehydrate batch size")
+                .defaultValue(SNAPSHOT_REHYDRATE_BATCH_SIZE_DEFAULT)
+                .validator(ConfigDef.Range.atLeast(1))
+                .importance(ConfigDef.Importance.LOW)
+                .documentation(SNAPSHOT_REHYDRATE_BATCH_SIZE_DOC)
+                .build()
         );
   }
 }
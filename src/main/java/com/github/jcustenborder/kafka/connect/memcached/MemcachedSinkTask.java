@@ -16,30 +16,31 @@
 package com.github.jcustenborder.kafka.connect.memcached;
 
 import com.github.jcustenborder.kafka.connect.utils.VersionUtil;
-import com.github.jcustenborder.kafka.connect.utils.data.TopicPartitionCounter;
-import com.google.common.base.Preconditions;
-import net.spy.memcached.ConnectionFactory;
-import net.spy.memcached.ConnectionFactoryBuilder;
-import net.spy.memcached.MemcachedClient;
-import net.spy.memcached.MemcachedClientIF;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.OperationFuture;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.DataException;
 import org.apache.kafka.connect.errors.RetriableException;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.apache.kafka.connect.sink.SinkTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.stream.Collectors;
+import java.util.function.IntConsumer;
 
 public class MemcachedSinkTask extends SinkTask {
   static {
@@ -47,7 +48,17 @@ public class MemcachedSinkTask extends SinkTask {
   }
 
   private static final Logger log = LoggerFactory.getLogger(MemcachedSinkTask.class);
-  MemcachedClientIF client;
+  static final String TASK_ID_CONF = "memcached.task.id";
+  MemcachedCluster defaultCluster;
+  List<MemcachedCluster> clusters;
+  ClusterRouter router;
+  final OffsetTracker offsetTracker = new OffsetTracker();
+  /**
+   * First parked offset per partition in the current batch.
+   */
+  final Map<TopicPartition, Long> parkedOffsets = new HashMap<>();
+  final Set<TopicPartition> pausedPartitions = new HashSet<>();
+  long resumeAt;
 
   @Override
   public String version() {
@@ -55,109 +66,304 @@ public class MemcachedSinkTask extends SinkTask {
   }
 
   MemcachedSinkConnectorConfig config;
+  RecordEncoder encoder;
 
   @Override
   public void start(Map<String, String> map) {
     this.config = new MemcachedSinkConnectorConfig(map);
-    log.info("Creating Memcached Client");
-    final ConnectionFactory connectionFactory = new ConnectionFactoryBuilder()
-        .setProtocol(this.config.protocol)
-        .setFailureMode(this.config.failureMode)
-        .setUseNagleAlgorithm(this.config.nagleAlgorithmEnabled)
-        .setShouldOptimize(this.config.optimizeEnabled)
-        .setMaxReconnectDelay(this.config.reconnectDelayMax)
-        .setLocatorType(this.config.locator)
-        .setReadBufferSize(this.config.readBufferSize)
-        .build();
+    this.encoder = new RecordEncoder(this.config);
+    final Map<String, String> metricsTags = new LinkedHashMap<>();
+    metricsTags.put("connector", map.getOrDefault("name", "unknown"));
+    metricsTags.put("task", map.getOrDefault(TASK_ID_CONF, "0"));
+    this.defaultCluster = new MemcachedCluster(MemcachedCluster.DEFAULT_NAME, this.config.hosts, this.config, metricsTags);
+    this.clusters = new ArrayList<>(this.config.clusters.size() + 1);
+    this.clusters.add(this.defaultCluster);
+    final List<ClusterRouter.Route> routes = new ArrayList<>(this.config.clusters.size());
+    for (ClusterConfig clusterConfig : this.config.clusters) {
+      log.info("start() - Routing records to {}", clusterConfig);
+      final MemcachedCluster cluster = new MemcachedCluster(clusterConfig.name, clusterConfig.hosts, this.config, metricsTags);
+      this.clusters.add(cluster);
+      routes.add(new ClusterRouter.Route(clusterConfig, cluster));
+    }
+    this.router = new ClusterRouter(this.defaultCluster, routes);
+
+    // Every client connects in the background so all clusters share the same startup deadline.
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.config.startupTimeout);
+    for (MemcachedCluster cluster : this.clusters) {
+      cluster.connect();
+    }
+    for (MemcachedCluster cluster : this.clusters) {
+      cluster.awaitReadiness(deadline);
+    }
+  }
+
+  @Override
+  public void open(Collection<TopicPartition> partitions) {
+    if (partitions.isEmpty()) {
+      return;
+    }
+    log.info("open() - Checking memcached for existing offsets for {} partition(s).", partitions.size());
+    final Map<String, TopicPartition> partitionKeys = new LinkedHashMap<>(partitions.size());
+    for (TopicPartition topicPartition : partitions) {
+      partitionKeys.put(this.offsetTracker.offsetKey(topicPartition), topicPartition);
+    }
+    final BulkFuture<Map<String, OffsetState>> future = this.defaultCluster.client.asyncGetBulk(
+        partitionKeys.keySet(),
+        OffsetStateTranscoder.INSTANCE
+    );
+    final Map<String, OffsetState> lastOffsets;
     try {
-      this.client = new MemcachedClient(connectionFactory, this.config.hosts);
-    } catch (IOException e) {
-      throw new ConnectException(
-          "Exception thrown while creating client",
-          e
-      );
-    }
-
-    log.info("Checking memcached for existing offsets.");
-    Set<String> partitionKeys = this.context.assignment().stream()
-        .map(MemcachedSinkTask::memcacheOffsetKey)
-        .collect(Collectors.toSet());
-    Map<String, OffsetState> lastOffsets = this.client.getBulk(partitionKeys, OffsetStateTranscoder.INSTANCE);
-    if (!lastOffsets.isEmpty()) {
-      Map<TopicPartition, Long> offsets = lastOffsets.values().stream()
-          .collect(Collectors.toMap(OffsetState::topicPartition, OffsetState::offset));
-      for (Map.Entry<TopicPartition, Long> e : offsets.entrySet()) {
-        log.info("Requesting offset {} for {}:{}", e.getValue(), e.getKey().topic(), e.getKey().partition());
+      lastOffsets = future.getSome(this.config.opTimeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException | ExecutionException e) {
+      throw new ConnectException("Exception thrown while reading offsets from memcached.", e);
+    }
+    // Nodes that did not answer in time should not cause their partitions to be replayed from the beginning.
+    final boolean complete = !future.isTimeout();
+    final Map<TopicPartition, Long> offsets = new LinkedHashMap<>(partitions.size());
+    for (Map.Entry<String, TopicPartition> e : partitionKeys.entrySet()) {
+      final OffsetState state = lastOffsets.get(e.getKey());
+      if (null == state && !complete) {
+        log.warn(
+            "open() - Offset lookup for {} timed out. Resuming from the committed consumer offset.",
+            e.getValue()
+        );
+        continue;
       }
-      this.context.offset(offsets);
-    } else {
-      Map<TopicPartition, Long> offsets = this.context.assignment().stream()
-          .map(e -> new AbstractMap.SimpleEntry<>(new TopicPartition(e.topic(), e.partition()), 0L))
-          .collect(
-              Collectors.toMap(
-                  Map.Entry::getKey,
-                  Map.Entry::getValue
-              )
-          );
-      for (Map.Entry<TopicPartition, Long> e : offsets.entrySet()) {
-        log.info("Requesting offset {} for {}:{}", e.getValue(), e.getKey().topic(), e.getKey().partition());
+      final long offset = null != state ? state.offset() : 0L;
+      log.info("Requesting offset {} for {}:{}", offset, e.getValue().topic(), e.getValue().partition());
+      offsets.put(e.getValue(), offset);
+    }
+    for (MemcachedCluster cluster : this.clusters) {
+      if (null != cluster.snapshot) {
+        cluster.snapshot.open(partitions, offsets);
       }
+    }
+    if (!offsets.isEmpty()) {
       this.context.offset(offsets);
     }
   }
 
+  @Override
+  public void close(Collection<TopicPartition> partitions) {
+    for (TopicPartition topicPartition : partitions) {
+      final long offset = this.offsetTracker.pending(topicPartition);
+      if (OffsetTracker.NO_OFFSET != offset) {
+        log.debug("close() - Checkpointing offset for revoked topic partition {} to {}", topicPartition, offset);
+        writeOffset(topicPartition, this.offsetTracker.offsetKey(topicPartition), offset);
+      }
+      this.offsetTracker.remove(topicPartition);
+    }
+    this.pausedPartitions.removeAll(partitions);
+    for (MemcachedCluster cluster : this.clusters) {
+      if (null != cluster.snapshot) {
+        cluster.snapshot.close(partitions);
+      }
+    }
+  }
 
   @Override
   public void put(Collection<SinkRecord> records) {
+    final List<SinkRecord> batch = records instanceof List ? (List<SinkRecord>) records : new ArrayList<>(records);
+    resumePartitions();
+    this.encoder.encode(batch);
+    final MemcachedSinkConnectorConfig.WriteMode writeMode = this.config.writeMode;
+    boolean dispatched = false;
+    try {
+      if (MemcachedSinkConnectorConfig.InvalidKeyBehavior.FAIL == this.config.keyInvalidBehavior) {
+        // Fail before anything is dispatched so no operation of this batch is left behind.
+        for (int i = 0; i < batch.size(); i++) {
+          if (null == this.encoder.keys[i]) {
+            throw this.encoder.errors[i];
+          }
+        }
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        final SinkRecord record = batch.get(i);
+        final String key = this.encoder.keys[i];
+        if (null == key) {
+          handleInvalidKey(record, this.encoder.errors[i]);
+          continue;
+        }
 
-    TopicPartitionCounter counter = new TopicPartitionCounter();
-    for (SinkRecord record : records) {
-      Preconditions.checkState(
-          record.key() instanceof String,
-          "record.key() must be a String. Use a transform to convert other data types."
-      );
-
-      if (null != record.value()) {
-        Preconditions.checkState(
-            record.value() instanceof byte[],
-            "record.value() must be a byte[]. Use a transform to convert other data types."
-        );
+        final MemcachedCluster cluster = this.router.route(record, this.encoder.templateKeys[i]);
+        if (MemcachedSinkConnectorConfig.WriteMode.SET != writeMode && !cluster.firstInBatch(key)) {
+          log.trace("put() - Skipping duplicate {} for key '{}'", writeMode, key);
+          continue;
+        }
+        final Object value = this.encoder.values[i];
+        if (null != value && !(value instanceof byte[])) {
+          throw new IllegalStateException(
+              "record.value() must be a byte[] or ByteBuffer. Use a transform to convert other data types."
+          );
+        }
+        if (MemcachedSinkConnectorConfig.WriteMode.TOUCH != writeMode) {
+          cluster.snapshot(record.topic(), record.kafkaPartition(), key, (byte[]) value);
+        }
+
+        final NodeCircuitBreaker circuitBreaker = cluster.circuitBreaker(key);
+        if (null != circuitBreaker && !circuitBreaker.allowRequest(System.nanoTime())) {
+          if (FailureMode.Cancel == this.config.failureMode) {
+            log.trace("put() - Circuit for {} is open. Dropping key '{}'", circuitBreaker.node, key);
+            cluster.dropped(key, value);
+          } else {
+            log.trace("put() - Circuit for {} is open. Parking key '{}'", circuitBreaker.node, key);
+            park(record);
+          }
+          continue;
+        }
+
+        final OperationFuture<Boolean> operation;
+
+        if (MemcachedSinkConnectorConfig.WriteMode.TOUCH == writeMode) {
+          log.trace("put() - Processing touch for key '{}'", key);
+          operation = cluster.client.touch(key, this.config.defaultExpirationSecs);
+        } else if (null == value) {
+          log.trace("put() - Processing delete for key '{}'", key);
+          operation = cluster.client.delete(key);
+        } else {
+          log.trace("put() - Processing set for key '{}'", key);
+          operation = cluster.client.set(key, this.config.defaultExpirationSecs, (byte[]) value, ByteArrayTranscoder.INSTANCE);
+        }
+
+        cluster.track(i, key, value, operation, circuitBreaker);
       }
 
-      final String key = (String) record.key();
-      final byte[] value = (byte[]) record.value();
-      final Future<Boolean> operation;
+      awaitOperations(batch);
+      dispatched = true;
+    } finally {
+      this.encoder.clear(batch.size());
+      if (!dispatched) {
+        this.parkedOffsets.clear();
+        for (MemcachedCluster cluster : this.clusters) {
+          cluster.discardPending();
+        }
+      }
+    }
 
-      if (null != value) {
-        log.trace("put() - Processing set for key '{}'", key);
-        operation = this.client.set(key, this.config.defaultExpirationSecs, value, ByteArrayTranscoder.INSTANCE);
-      } else {
-        log.trace("put() - Processing delete for key '{}'", key);
-        operation = this.client.delete(key);
+    if (this.parkedOffsets.isEmpty()) {
+      for (SinkRecord record : records) {
+        this.offsetTracker.update(record.topic(), record.kafkaPartition(), record.kafkaOffset());
+      }
+    } else {
+      for (SinkRecord record : records) {
+        final Long parkedOffset = this.parkedOffsets.get(new TopicPartition(record.topic(), record.kafkaPartition()));
+        if (null == parkedOffset || record.kafkaOffset() < parkedOffset) {
+          this.offsetTracker.update(record.topic(), record.kafkaPartition(), record.kafkaOffset());
+        }
       }
+      pauseParkedPartitions();
+    }
+    this.offsetTracker.drainPending(this.offsetWriter);
+
+    this.context.requestCommit();
+  }
 
-      handleOperation(operation);
-      counter.increment(record.topic(), record.kafkaPartition(), record.kafkaOffset());
+  /**
+   * Records that the record was not written because the circuit for its node is open.
+   */
+  private void park(SinkRecord record) {
+    final TopicPartition topicPartition = new TopicPartition(record.topic(), record.kafkaPartition());
+    final Long parkedOffset = this.parkedOffsets.get(topicPartition);
+    if (null == parkedOffset || record.kafkaOffset() < parkedOffset) {
+      this.parkedOffsets.put(topicPartition, record.kafkaOffset());
     }
+  }
 
-    final Map<TopicPartition, Long> data = counter.data();
+  /**
+   * Rewinds every partition with a parked record to its first parked record and pauses it until
+   * the open circuits allow a probe. Partitions without parked records keep moving.
+   */
+  private void pauseParkedPartitions() {
+    final long backoff = parkedBackoff();
+    log.warn(
+        "put() - Records of {} were parked for nodes with an open circuit. Retrying in {} ms.",
+        this.parkedOffsets.keySet(),
+        backoff
+    );
+    this.context.offset(this.parkedOffsets);
+    this.context.pause(this.parkedOffsets.keySet().toArray(new TopicPartition[0]));
+    this.pausedPartitions.addAll(this.parkedOffsets.keySet());
+    this.resumeAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+    this.parkedOffsets.clear();
+  }
 
-    for (Map.Entry<TopicPartition, Long> e : data.entrySet()) {
-      final TopicPartition topicPartition = e.getKey();
-      final Long offset = e.getValue();
-      final String key = memcacheOffsetKey(topicPartition);
-      final OffsetState state = OffsetState.of(topicPartition, offset);
-      log.trace("put() - Setting {} to {}", key, offset);
-      log.debug("put() - Setting offset for topic partition {} to {}", topicPartition, offset);
-      Future<Boolean> operation = this.client.set(key, 0, state, OffsetStateTranscoder.INSTANCE);
-      handleOperation(operation);
+  private void resumePartitions() {
+    if (this.pausedPartitions.isEmpty() || System.nanoTime() - this.resumeAt < 0L) {
+      return;
     }
+    log.info("put() - Resuming {}", this.pausedPartitions);
+    this.context.resume(this.pausedPartitions.toArray(new TopicPartition[0]));
+    this.pausedPartitions.clear();
+  }
 
-    this.context.requestCommit();
+  /**
+   * Waits for all of the operations dispatched by put(). The operation timeout applies to the batch
+   * as a whole rather than to each operation. Records whose operation was cancelled because the
+   * circuit for their node opened are parked, or dropped with the {@code Cancel} failure mode.
+   */
+  private void awaitOperations(List<SinkRecord> batch) {
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.config.opTimeout);
+    final IntConsumer parked = index -> {
+      if (FailureMode.Cancel != this.config.failureMode) {
+        park(batch.get(index));
+      }
+    };
+    Exception failure = null;
+    for (MemcachedCluster cluster : this.clusters) {
+      final Exception e = cluster.awaitOperations(deadline, parked);
+      if (null == failure) {
+        failure = e;
+      }
+    }
+    if (null != failure) {
+      log.error("Exception thrown while writing to memcached.", failure);
+      throw new RetriableException(failure);
+    }
+  }
+
+  private long parkedBackoff() {
+    final long now = System.nanoTime();
+    long result = 0L;
+    for (MemcachedCluster cluster : this.clusters) {
+      result = Math.max(result, cluster.remainingOpenNanos(now));
+    }
+    return Math.max(1L, TimeUnit.NANOSECONDS.toMillis(result));
+  }
+
+  private void handleInvalidKey(SinkRecord record, DataException e) {
+    switch (this.config.keyInvalidBehavior) {
+      case IGNORE:
+        log.trace("put() - Skipping {}:{}:{}", record.topic(), record.kafkaPartition(), record.kafkaOffset(), e);
+        break;
+      case LOG:
+        log.warn(
+            "put() - Skipping record {}:{}:{} because a key could not be built.",
+            record.topic(),
+            record.kafkaPartition(),
+            record.kafkaOffset(),
+            e
+        );
+        break;
+      default:
+        throw e;
+    }
+  }
+
+  private final OffsetTracker.PendingOffsetConsumer offsetWriter = this::writeOffset;
+
+  private void writeOffset(TopicPartition topicPartition, String key, long offset) {
+    final OffsetState state = OffsetState.of(topicPartition, offset);
+    log.trace("writeOffset() - Setting {} to {}", key, offset);
+    log.debug("writeOffset() - Setting offset for topic partition {} to {}", topicPartition, offset);
+    Future<Boolean> operation = this.defaultCluster.client.set(key, 0, state, OffsetStateTranscoder.INSTANCE);
+    handleOperation(operation);
+    for (MemcachedCluster cluster : this.clusters) {
+      cluster.checkpoint(topicPartition, offset);
+    }
   }
 
   static String memcacheOffsetKey(TopicPartition topicPartition) {
-    return String.format("__kafka.offset.%s.%s", topicPartition.topic(), topicPartition.partition());
+    return "__kafka.offset." + topicPartition.topic() + "." + topicPartition.partition();
   }
 
   private void handleOperation(Future<Boolean> operation) {
@@ -172,6 +378,13 @@ public class MemcachedSinkTask extends SinkTask {
 
   @Override
   public void stop() {
-    this.client.shutdown();
+    if (null != this.encoder) {
+      this.encoder.stop();
+    }
+    if (null != this.clusters) {
+      for (MemcachedCluster cluster : this.clusters) {
+        cluster.stop();
+      }
+    }
   }
 }
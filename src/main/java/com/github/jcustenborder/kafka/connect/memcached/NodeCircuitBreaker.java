@@ -0,0 +1,233 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the health of a single memcached node over a sliding window of the most recent
+ * operations. The circuit opens when the error rate or the p99 latency of the window crosses the
+ * configured thresholds, or straight away when an operation has not completed within the slow
+ * call threshold. A hung node would otherwise cost a full operation timeout for every batch until
+ * the window fills. While open no operations are allowed. Once the open duration has elapsed
+ * a single probe operation is allowed through. The circuit closes if the probe succeeds and opens
+ * again if it fails.
+ * <p>
+ * Results are recorded by the task thread as it waits for each operation, all state is guarded by
+ * this instance so it can also be read from JMX and the probe logic.
+ */
+class NodeCircuitBreaker {
+  private static final Logger log = LoggerFactory.getLogger(NodeCircuitBreaker.class);
+
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  final SocketAddress node;
+  final int windowSize;
+  final double failureRateThreshold;
+  final long slowCallNanos;
+  final long openNanos;
+
+  private final boolean[] failures;
+  private final long[] latencies;
+  private final long[] sortBuffer;
+  private int index;
+  private int count;
+  private int failureCount;
+  private int samplesSinceLatencyCheck;
+  private State state = State.CLOSED;
+  private long openedAt;
+  private boolean probeInFlight;
+
+  NodeCircuitBreaker(SocketAddress node, int windowSize, double failureRateThreshold, long slowCallMs, long openMs) {
+    this.node = node;
+    this.windowSize = windowSize;
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+    this.failures = new boolean[windowSize];
+    this.latencies = new long[windowSize];
+    this.sortBuffer = new long[windowSize];
+  }
+
+  NodeCircuitBreaker(SocketAddress node, MemcachedSinkConnectorConfig config) {
+    this(
+        node,
+        config.circuitBreakerWindowSize,
+        config.circuitBreakerFailureRateThreshold,
+        config.circuitBreakerSlowCallMs,
+        config.circuitBreakerOpenMs
+    );
+  }
+
+  /**
+   * @return true if an operation may be sent to the node.
+   */
+  public synchronized boolean allowRequest(long now) {
+    switch (this.state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (now - this.openedAt < this.openNanos) {
+          return false;
+        }
+        log.info("allowRequest() - Circuit for {} is half open. Sending probe.", this.node);
+        this.state = State.HALF_OPEN;
+        this.probeInFlight = true;
+        return true;
+      default:
+        if (this.probeInFlight) {
+          return false;
+        }
+        this.probeInFlight = true;
+        return true;
+    }
+  }
+
+  public synchronized State state() {
+    return this.state;
+  }
+
+  /**
+   * @return nanoseconds to wait before parked records are retried. While a probe is in flight this
+   * is a full open period so the batch is not redelivered in a tight loop. 0 if the circuit is closed.
+   */
+  public synchronized long remainingOpenNanos(long now) {
+    switch (this.state) {
+      case OPEN:
+        return Math.max(0L, this.openNanos - (now - this.openedAt));
+      case HALF_OPEN:
+        return this.probeInFlight ? this.openNanos : 0L;
+      default:
+        return 0L;
+    }
+  }
+
+  public synchronized void recordSuccess(long latencyNanos, long now) {
+    if (State.HALF_OPEN == this.state) {
+      log.info("recordSuccess() - Probe to {} succeeded. Closing circuit.", this.node);
+      close();
+      return;
+    }
+    if (State.OPEN == this.state) {
+      return;
+    }
+    record(false, latencyNanos);
+    if (++this.samplesSinceLatencyCheck >= this.windowSize && this.count == this.windowSize) {
+      this.samplesSinceLatencyCheck = 0;
+      final long p99 = percentile(0.99D);
+      if (p99 > this.slowCallNanos) {
+        log.warn(
+            "recordSuccess() - p99 latency for {} is {} ms. Opening circuit.",
+            this.node,
+            TimeUnit.NANOSECONDS.toMillis(p99)
+        );
+        open(now);
+      }
+    }
+  }
+
+  public synchronized void recordFailure(long latencyNanos, long now) {
+    if (State.HALF_OPEN == this.state) {
+      log.warn("recordFailure() - Probe to {} failed. Opening circuit.", this.node);
+      open(now);
+      return;
+    }
+    if (State.OPEN == this.state) {
+      return;
+    }
+    record(true, latencyNanos);
+    if (this.count == this.windowSize && failureRate() >= this.failureRateThreshold) {
+      log.warn(
+          "recordFailure() - Error rate for {} is {}. Opening circuit.",
+          this.node,
+          failureRate()
+      );
+      open(now);
+    }
+  }
+
+  /**
+   * Opens the circuit because an operation did not complete within the slow call threshold.
+   */
+  public synchronized void recordTimeout(long now) {
+    if (State.OPEN == this.state) {
+      return;
+    }
+    log.warn(
+        "recordTimeout() - Operation to {} did not complete within {} ms. Opening circuit.",
+        this.node,
+        TimeUnit.NANOSECONDS.toMillis(this.slowCallNanos)
+    );
+    open(now);
+  }
+
+  public synchronized double failureRate() {
+    return 0 == this.count ? 0D : (double) this.failureCount / this.count;
+  }
+
+  /**
+   * @return the latency in nanoseconds at the supplied percentile of the current window.
+   */
+  public synchronized long percentile(double percentile) {
+    if (0 == this.count) {
+      return 0L;
+    }
+    System.arraycopy(this.latencies, 0, this.sortBuffer, 0, this.count);
+    Arrays.sort(this.sortBuffer, 0, this.count);
+    final int rank = (int) Math.ceil(percentile * this.count) - 1;
+    return this.sortBuffer[Math.max(0, Math.min(rank, this.count - 1))];
+  }
+
+  private void record(boolean failure, long latencyNanos) {
+    if (this.count == this.windowSize) {
+      if (this.failures[this.index]) {
+        this.failureCount--;
+      }
+    } else {
+      this.count++;
+    }
+    this.failures[this.index] = failure;
+    this.latencies[this.index] = latencyNanos;
+    if (failure) {
+      this.failureCount++;
+    }
+    this.index = (this.index + 1) % this.windowSize;
+  }
+
+  private void open(long now) {
+    this.state = State.OPEN;
+    this.openedAt = now;
+    this.probeInFlight = false;
+  }
+
+  private void close() {
+    this.state = State.CLOSED;
+    this.probeInFlight = false;
+    this.index = 0;
+    this.count = 0;
+    this.failureCount = 0;
+    this.samplesSinceLatencyCheck = 0;
+  }
+}
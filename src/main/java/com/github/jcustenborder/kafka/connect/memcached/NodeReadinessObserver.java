@@ -0,0 +1,75 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import net.spy.memcached.ConnectionObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks which memcached nodes have an established connection. Registered as an initial observer
+ * so that connections which complete while the client is being constructed are not missed.
+ */
+class NodeReadinessObserver implements ConnectionObserver {
+  private static final Logger log = LoggerFactory.getLogger(NodeReadinessObserver.class);
+  private final Set<SocketAddress> connected = ConcurrentHashMap.newKeySet();
+  private final Set<SocketAddress> established = ConcurrentHashMap.newKeySet();
+  private final CountDownLatch latch;
+
+  NodeReadinessObserver(Collection<? extends SocketAddress> nodes) {
+    this.latch = new CountDownLatch(nodes.size());
+  }
+
+  @Override
+  public void connectionEstablished(SocketAddress socketAddress, int reconnectCount) {
+    log.debug("connectionEstablished() - {} reconnectCount = {}", socketAddress, reconnectCount);
+    this.connected.add(socketAddress);
+    if (this.established.add(socketAddress)) {
+      this.latch.countDown();
+    }
+  }
+
+  @Override
+  public void connectionLost(SocketAddress socketAddress) {
+    log.debug("connectionLost() - {}", socketAddress);
+    this.connected.remove(socketAddress);
+  }
+
+  /**
+   * Waits for every node to establish its first connection.
+   *
+   * @return true if all nodes connected before the timeout elapsed.
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    return this.latch.await(timeout, unit);
+  }
+
+  public boolean isReady(SocketAddress socketAddress) {
+    return this.connected.contains(socketAddress);
+  }
+
+  public Set<SocketAddress> readyNodes() {
+    return Collections.unmodifiableSet(this.connected);
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the highest written offset per topic partition and which partitions still need to be
+ * checkpointed to memcached. Offsets are stored in primitive arrays indexed by partition so that
+ * recording an offset for a record does not allocate once a partition has been seen. The
+ * {@link TopicPartition} and offset key for each partition are built once and cached.
+ */
+class OffsetTracker {
+  interface PendingOffsetConsumer {
+    void accept(TopicPartition topicPartition, String offsetKey, long offset);
+  }
+
+  static final long NO_OFFSET = -1L;
+
+  static class PartitionOffsets {
+    final String topic;
+    long[] offsets = new long[0];
+    boolean[] pending = new boolean[0];
+    TopicPartition[] topicPartitions = new TopicPartition[0];
+    String[] offsetKeys = new String[0];
+
+    PartitionOffsets(String topic) {
+      this.topic = topic;
+    }
+
+    void ensureCapacity(int partition) {
+      if (partition < this.offsets.length) {
+        return;
+      }
+      final int oldLength = this.offsets.length;
+      final int newLength = Math.max(partition + 1, oldLength * 2);
+      this.offsets = Arrays.copyOf(this.offsets, newLength);
+      Arrays.fill(this.offsets, oldLength, newLength, NO_OFFSET);
+      this.pending = Arrays.copyOf(this.pending, newLength);
+      this.topicPartitions = Arrays.copyOf(this.topicPartitions, newLength);
+      this.offsetKeys = Arrays.copyOf(this.offsetKeys, newLength);
+    }
+
+    TopicPartition topicPartition(int partition) {
+      TopicPartition result = this.topicPartitions[partition];
+      if (null == result) {
+        result = new TopicPartition(this.topic, partition);
+        this.topicPartitions[partition] = result;
+        this.offsetKeys[partition] = MemcachedSinkTask.memcacheOffsetKey(result);
+      }
+      return result;
+    }
+  }
+
+  private final Map<String, PartitionOffsets> topics = new HashMap<>();
+  private PartitionOffsets lastTopic;
+  private int pendingCount;
+
+  private PartitionOffsets partitionOffsets(String topic) {
+    final PartitionOffsets last = this.lastTopic;
+    if (null != last && last.topic.equals(topic)) {
+      return last;
+    }
+    PartitionOffsets result = this.topics.get(topic);
+    if (null == result) {
+      result = new PartitionOffsets(topic);
+      this.topics.put(topic, result);
+    }
+    this.lastTopic = result;
+    return result;
+  }
+
+  /**
+   * Records that the record at the supplied offset has been written.
+   */
+  public void update(String topic, int partition, long offset) {
+    final PartitionOffsets partitionOffsets = partitionOffsets(topic);
+    partitionOffsets.ensureCapacity(partition);
+    if (offset > partitionOffsets.offsets[partition]) {
+      partitionOffsets.offsets[partition] = offset;
+    }
+    if (!partitionOffsets.pending[partition]) {
+      partitionOffsets.pending[partition] = true;
+      partitionOffsets.topicPartition(partition);
+      this.pendingCount++;
+    }
+  }
+
+  /**
+   * @return the offset written for the partition that has not been checkpointed, or {@link #NO_OFFSET}.
+   */
+  public long pending(TopicPartition topicPartition) {
+    final PartitionOffsets partitionOffsets = this.topics.get(topicPartition.topic());
+    final int partition = topicPartition.partition();
+    if (null == partitionOffsets || partition >= partitionOffsets.offsets.length || !partitionOffsets.pending[partition]) {
+      return NO_OFFSET;
+    }
+    return partitionOffsets.offsets[partition];
+  }
+
+  public boolean hasPending() {
+    return this.pendingCount > 0;
+  }
+
+  /**
+   * Passes every partition that has an offset that has not been checkpointed to the consumer. The
+   * partition is marked as checkpointed once the consumer returns without throwing.
+   */
+  public void drainPending(PendingOffsetConsumer consumer) {
+    if (0 == this.pendingCount) {
+      return;
+    }
+    for (PartitionOffsets partitionOffsets : this.topics.values()) {
+      for (int partition = 0; partition < partitionOffsets.pending.length; partition++) {
+        if (!partitionOffsets.pending[partition]) {
+          continue;
+        }
+        consumer.accept(
+            partitionOffsets.topicPartitions[partition],
+            partitionOffsets.offsetKeys[partition],
+            partitionOffsets.offsets[partition]
+        );
+        partitionOffsets.pending[partition] = false;
+        this.pendingCount--;
+      }
+    }
+  }
+
+  /**
+   * @return the cached offset key for the partition.
+   */
+  public String offsetKey(TopicPartition topicPartition) {
+    final PartitionOffsets partitionOffsets = partitionOffsets(topicPartition.topic());
+    partitionOffsets.ensureCapacity(topicPartition.partition());
+    partitionOffsets.topicPartition(topicPartition.partition());
+    return partitionOffsets.offsetKeys[topicPartition.partition()];
+  }
+
+  /**
+   * Forgets all state for the partition. Used when a partition is revoked from the task.
+   */
+  public void remove(TopicPartition topicPartition) {
+    final PartitionOffsets partitionOffsets = this.topics.get(topicPartition.topic());
+    final int partition = topicPartition.partition();
+    if (null == partitionOffsets || partition >= partitionOffsets.offsets.length) {
+      return;
+    }
+    if (partitionOffsets.pending[partition]) {
+      partitionOffsets.pending[partition] = false;
+      this.pendingCount--;
+    }
+    partitionOffsets.offsets[partition] = NO_OFFSET;
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds the key and prepares the value of every record in a batch before it is dispatched.
+ * Small batches, or every batch when no threads are configured, are encoded on the calling
+ * thread. Larger batches are split across a bounded {@link ForkJoinPool}. Results are stored by
+ * position in the batch so the dispatcher still sends records in their original order, which
+ * keeps writes to the same key in order.
+ * <p>
+ * The result arrays are reused between batches and are only valid until the next call to
+ * {@link #encode(List)}.
+ */
+class RecordEncoder {
+  final ForkJoinPool pool;
+  final int parallelThreshold;
+  final int chunkSize;
+  final KeyBuilder keyBuilder;
+  final ThreadLocal<KeyBuilder> keyBuilders;
+  final boolean encodeValues;
+
+  String[] keys = new String[0];
+  String[] templateKeys = new String[0];
+  Object[] values = new Object[0];
+  DataException[] errors = new DataException[0];
+
+  RecordEncoder(MemcachedSinkConnectorConfig config) {
+    this.keyBuilder = new KeyBuilder(config);
+    this.parallelThreshold = config.encodingParallelThreshold;
+    // Delete and touch only need the key.
+    this.encodeValues = MemcachedSinkConnectorConfig.WriteMode.SET == config.writeMode;
+    if (config.encodingThreads > 0) {
+      this.pool = new ForkJoinPool(
+          config.encodingThreads,
+          pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("memcached-encoder-" + thread.getPoolIndex());
+            return thread;
+          },
+          null,
+          false
+      );
+      this.keyBuilders = ThreadLocal.withInitial(() -> new KeyBuilder(config));
+      this.chunkSize = Math.max(64, this.parallelThreshold / config.encodingThreads);
+    } else {
+      this.pool = null;
+      this.keyBuilders = null;
+      this.chunkSize = Integer.MAX_VALUE;
+    }
+  }
+
+  class EncodeAction extends RecursiveAction {
+    final List<SinkRecord> records;
+    final int start;
+    final int end;
+
+    EncodeAction(List<SinkRecord> records, int start, int end) {
+      this.records = records;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.end - this.start <= chunkSize) {
+        encodeRange(keyBuilders.get(), this.records, this.start, this.end);
+        return;
+      }
+      final int middle = (this.start + this.end) >>> 1;
+      invokeAll(
+          new EncodeAction(this.records, this.start, middle),
+          new EncodeAction(this.records, middle, this.end)
+      );
+    }
+  }
+
+  /**
+   * Encodes the batch. After this returns {@link #keys} holds the key for each record, or null if
+   * a key could not be built in which case {@link #errors} holds the reason. {@link #templateKeys}
+   * holds the expanded template before it was hashed, which is what routing rules match against. {@link #values} holds
+   * the value to write, or null when the write mode does not send values.
+   */
+  public void encode(List<SinkRecord> records) {
+    final int size = records.size();
+    if (this.keys.length < size) {
+      this.keys = new String[size];
+      this.templateKeys = new String[size];
+      this.values = new Object[size];
+      this.errors = new DataException[size];
+    }
+    if (null == this.pool || size < this.parallelThreshold) {
+      encodeRange(this.keyBuilder, records, 0, size);
+    } else {
+      this.pool.invoke(new EncodeAction(records, 0, size));
+    }
+  }
+
+  void encodeRange(KeyBuilder keyBuilder, List<SinkRecord> records, int start, int end) {
+    for (int i = start; i < end; i++) {
+      final SinkRecord record = records.get(i);
+      try {
+        this.templateKeys[i] = keyBuilder.template(record);
+        this.keys[i] = keyBuilder.finish(this.templateKeys[i]);
+        this.errors[i] = null;
+      } catch (DataException e) {
+        this.keys[i] = null;
+        this.errors[i] = e;
+      }
+      if (this.encodeValues) {
+        final Object value = record.value();
+        this.values[i] = value instanceof ByteBuffer ? ByteBuffers.bytes((ByteBuffer) value) : value;
+      }
+    }
+  }
+
+  /**
+   * Releases references to the records of the last batch.
+   */
+  public void clear(int size) {
+    Arrays.fill(this.values, 0, Math.min(size, this.values.length), null);
+    Arrays.fill(this.keys, 0, Math.min(size, this.keys.length), null);
+    Arrays.fill(this.templateKeys, 0, Math.min(size, this.templateKeys.length), null);
+    Arrays.fill(this.errors, 0, Math.min(size, this.errors.length), null);
+  }
+
+  public void stop() {
+    if (null != this.pool) {
+      this.pool.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,410 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append only file holding the latest value of every key written for a single topic partition.
+ * The file starts with the last Kafka offset checkpointed for the partition followed by entries
+ * laid out as {@code [key length][value length][written at][key][value]} where a value length
+ * of -1 marks a delete and the write time is in milliseconds since the epoch. The position of the live entry of every key is kept in memory and the file
+ * is rewritten with only the live entries, sorted by key, once it has grown to
+ * {@link #COMPACTION_RATIO} times the live data. Compaction copies the live entries without holding
+ * the lock of the segment so appends can continue, then copies whatever was appended in the
+ * meantime and swaps the file in under the lock.
+ */
+class SnapshotSegment implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(SnapshotSegment.class);
+  static final int FILE_HEADER_LENGTH = 8;
+  static final int HEADER_LENGTH = 16;
+  static final long NO_OFFSET = -1L;
+  static final int TOMBSTONE = -1;
+  static final int COMPACTION_RATIO = 2;
+  static final long COMPACTION_MIN_BYTES = 64L * 1024L * 1024L;
+  static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+  static class Entry {
+    long position;
+    int length;
+
+    Entry(long position, int length) {
+      this.position = position;
+      this.length = length;
+    }
+  }
+
+  interface EntryConsumer {
+    void accept(String key, long writtenAt, byte[] value);
+  }
+
+  final File file;
+  final Map<String, Entry> index = new HashMap<>();
+  final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+  FileChannel channel;
+  long size;
+  long written;
+  long liveBytes;
+  long offset = NO_OFFSET;
+  boolean closed;
+  boolean compacting;
+
+  SnapshotSegment(File file) throws IOException {
+    this.file = file;
+    load();
+    this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if (this.size < FILE_HEADER_LENGTH) {
+      this.channel.truncate(0L);
+      this.size = FILE_HEADER_LENGTH;
+      writeOffset(this.channel, this.offset);
+    } else if (this.channel.size() > this.size) {
+      log.warn("SnapshotSegment() - Truncating incomplete entry at position {} of {}", this.size, this.file);
+      this.channel.truncate(this.size);
+    }
+    this.written = this.size;
+  }
+
+  private void load() throws IOException {
+    if (!this.file.exists() || this.file.length() < FILE_HEADER_LENGTH) {
+      return;
+    }
+    final long fileLength = this.file.length();
+    try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file), WRITE_BUFFER_SIZE))) {
+      this.offset = inputStream.readLong();
+      this.size = FILE_HEADER_LENGTH;
+      while (true) {
+        final int keyLength;
+        try {
+          keyLength = inputStream.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        final int valueLength;
+        final byte[] key;
+        try {
+          valueLength = inputStream.readInt();
+          inputStream.readLong();
+          if (keyLength < 0 || valueLength < TOMBSTONE || this.size + HEADER_LENGTH + keyLength > fileLength) {
+            break;
+          }
+          key = new byte[keyLength];
+          inputStream.readFully(key);
+          if (TOMBSTONE != valueLength) {
+            long remaining = valueLength;
+            while (remaining > 0) {
+              final long skipped = inputStream.skip(remaining);
+              if (skipped <= 0) {
+                throw new EOFException();
+              }
+              remaining -= skipped;
+            }
+          }
+        } catch (EOFException e) {
+          break;
+        }
+        // FileInputStream.skip() can move past the end of the file so check the entry is complete.
+        if (this.size + HEADER_LENGTH + keyLength + Math.max(0, valueLength) > fileLength) {
+          break;
+        }
+        index(new String(key, StandardCharsets.UTF_8), this.size, keyLength, valueLength);
+      }
+    }
+    log.info("load() - Loaded {} key(s) up to offset {} from {}", this.index.size(), this.offset, this.file);
+  }
+
+  private void index(String key, long position, int keyLength, int valueLength) {
+    final int length = HEADER_LENGTH + keyLength + Math.max(0, valueLength);
+    this.size = position + length;
+    final Entry entry = this.index.get(key);
+    if (null != entry) {
+      this.liveBytes -= entry.length;
+    }
+    if (TOMBSTONE == valueLength) {
+      if (null != entry) {
+        this.index.remove(key);
+      }
+      return;
+    }
+    if (null == entry) {
+      this.index.put(key, new Entry(position, length));
+    } else {
+      entry.position = position;
+      entry.length = length;
+    }
+    this.liveBytes += length;
+  }
+
+  /**
+   * Records the latest value for the key. A null value records a delete.
+   *
+   * @param writtenAt time in milliseconds since the epoch the value was written to memcached.
+   */
+  public synchronized void append(String key, byte[] value, long writtenAt) throws IOException {
+    final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    final int valueLength = null == value ? TOMBSTONE : value.length;
+    final long position = this.size;
+    write(keyBytes, valueLength, writtenAt, value);
+    index(key, position, keyBytes.length, valueLength);
+  }
+
+  /**
+   * Checks if the segment has grown to {@link #COMPACTION_RATIO} times the live data. Returns true
+   * only once until {@link #compact()} has run so the caller schedules a single compaction.
+   */
+  public synchronized boolean compactionDue() {
+    if (this.closed || this.compacting || this.size < COMPACTION_MIN_BYTES || this.size <= COMPACTION_RATIO * this.liveBytes) {
+      return false;
+    }
+    this.compacting = true;
+    return true;
+  }
+
+  private void write(byte[] key, int valueLength, long writtenAt, byte[] value) throws IOException {
+    if (this.writeBuffer.remaining() < HEADER_LENGTH) {
+      flush();
+    }
+    this.writeBuffer.putInt(key.length);
+    this.writeBuffer.putInt(valueLength);
+    this.writeBuffer.putLong(writtenAt);
+    put(key);
+    if (null != value) {
+      put(value);
+    }
+  }
+
+  private void put(byte[] bytes) throws IOException {
+    int offset = 0;
+    while (offset < bytes.length) {
+      if (!this.writeBuffer.hasRemaining()) {
+        flush();
+      }
+      final int length = Math.min(this.writeBuffer.remaining(), bytes.length - offset);
+      this.writeBuffer.put(bytes, offset, length);
+      offset += length;
+    }
+  }
+
+  /**
+   * Writes buffered entries to the file.
+   */
+  public synchronized void flush() throws IOException {
+    if (0 == this.writeBuffer.position()) {
+      return;
+    }
+    this.writeBuffer.flip();
+    while (this.writeBuffer.hasRemaining()) {
+      this.written += this.channel.write(this.writeBuffer, this.written);
+    }
+    this.writeBuffer.clear();
+  }
+
+  /**
+   * Writes the buffered entries and records that every record of the partition up to and including
+   * the offset has been applied.
+   */
+  public synchronized void checkpoint(long offset) throws IOException {
+    flush();
+    writeOffset(this.channel, offset);
+    this.offset = offset;
+  }
+
+  private static void writeOffset(FileChannel channel, long offset) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+    buffer.putLong(offset);
+    buffer.flip();
+    long position = 0L;
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  /**
+   * @return a copy of the live keys.
+   */
+  public synchronized List<String> keys() {
+    return new ArrayList<>(this.index.keySet());
+  }
+
+  /**
+   * Reads the current value of each key that is still live in the segment.
+   */
+  public synchronized void read(List<String> keys, EntryConsumer consumer) throws IOException {
+    if (this.closed) {
+      return;
+    }
+    flush();
+    for (String key : keys) {
+      final Entry entry = this.index.get(key);
+      if (null == entry) {
+        continue;
+      }
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+      readFully(this.channel, header, entry.position);
+      header.flip();
+      final int keyLength = header.getInt();
+      final int valueLength = header.getInt();
+      final long writtenAt = header.getLong();
+      final ByteBuffer value = ByteBuffer.allocate(valueLength);
+      readFully(this.channel, value, entry.position + HEADER_LENGTH + keyLength);
+      consumer.accept(key, writtenAt, value.array());
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      position += read;
+    }
+  }
+
+  /**
+   * Rewrites the segment with only the live entries sorted by key. The live entries are copied
+   * without holding the lock. Entries appended during the copy are appended to the new file under
+   * the lock before it replaces the segment. The current file and channel are left in place if any
+   * step fails.
+   */
+  void compact() throws IOException {
+    final long started = System.nanoTime();
+    final File compacted = new File(this.file.getParentFile(), this.file.getName() + ".compact");
+    final FileChannel source;
+    final long copiedUpTo;
+    final List<String> keys;
+    final Map<String, Entry> positions;
+    synchronized (this) {
+      if (this.closed) {
+        this.compacting = false;
+        return;
+      }
+      this.compacting = true;
+      try {
+        flush();
+      } catch (IOException e) {
+        this.compacting = false;
+        throw e;
+      }
+      source = this.channel;
+      copiedUpTo = this.written;
+      keys = new ArrayList<>(this.index.keySet());
+      positions = new HashMap<>(this.index.size());
+      for (Map.Entry<String, Entry> e : this.index.entrySet()) {
+        positions.put(e.getKey(), new Entry(e.getValue().position, e.getValue().length));
+      }
+    }
+    Collections.sort(keys);
+    FileChannel output = null;
+    try {
+      output = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      long position = FILE_HEADER_LENGTH;
+      output.position(position);
+      for (String key : keys) {
+        final Entry entry = positions.get(key);
+        transfer(source, entry.position, entry.length, output);
+        entry.position = position;
+        position += entry.length;
+      }
+      synchronized (this) {
+        if (this.closed) {
+          return;
+        }
+        flush();
+        final long previousSize = this.size;
+        final long appended = this.written - copiedUpTo;
+        transfer(this.channel, copiedUpTo, appended, output);
+        writeOffset(output, this.offset);
+        output.force(true);
+        Files.move(compacted.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Entries appended during the copy keep their order after the copied entries.
+        long liveBytes = 0L;
+        for (Map.Entry<String, Entry> e : this.index.entrySet()) {
+          final Entry entry = e.getValue();
+          if (entry.position >= copiedUpTo) {
+            entry.position = entry.position - copiedUpTo + position;
+          } else {
+            entry.position = positions.get(e.getKey()).position;
+          }
+          liveBytes += entry.length;
+        }
+        final FileChannel previous = this.channel;
+        this.channel = output;
+        output = null;
+        this.size = position + appended;
+        this.written = this.size;
+        this.liveBytes = liveBytes;
+        try {
+          previous.close();
+        } catch (IOException e) {
+          log.warn("compact() - Exception thrown while closing previous channel of {}", this.file, e);
+        }
+        log.info(
+            "compact() - Compacted {} from {} to {} byte(s) in {} ms",
+            this.file,
+            previousSize,
+            this.size,
+            (System.nanoTime() - started) / 1000000L
+        );
+      }
+    } finally {
+      if (null != output) {
+        output.close();
+        Files.deleteIfExists(compacted.toPath());
+      }
+      synchronized (this) {
+        this.compacting = false;
+      }
+    }
+  }
+
+  private static void transfer(FileChannel source, long position, long length, FileChannel target) throws IOException {
+    long transferred = 0L;
+    while (transferred < length) {
+      transferred += source.transferTo(position + transferred, length - transferred, target);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (this.closed) {
+      return;
+    }
+    flush();
+    this.closed = true;
+    this.channel.close();
+  }
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import net.spy.memcached.MemcachedClientIF;
+import net.spy.memcached.internal.BulkFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Samples a fraction of acknowledged writes and reads them back from memcached after a delay to
+ * measure how many writes are still present. Samples are staged while a batch is in flight and
+ * only queued for verification once the batch has been acknowledged. A sample is dropped as
+ * superseded if its key is written again before it is verified, whether in the same batch or a
+ * later one.
+ */
+class WriteVerifier implements WriteVerifierMXBean {
+  private static final Logger log = LoggerFactory.getLogger(WriteVerifier.class);
+  static final long CHECK_INTERVAL_MS = 1000L;
+
+  static class Sample {
+    final String key;
+    final long checksum;
+    final int length;
+    long acknowledged;
+    boolean superseded;
+
+    Sample(String key, long checksum, int length) {
+      this.key = key;
+      this.checksum = checksum;
+      this.length = length;
+    }
+  }
+
+  final String name;
+  final MemcachedClientIF client;
+  final double sampleRatio;
+  final long delayNanos;
+  final int batchSize;
+  final int maxPending;
+  final long timeoutMs;
+
+  private final Queue<Sample> queue = new ConcurrentLinkedQueue<>();
+  private final Map<String, Sample> latest = new ConcurrentHashMap<>();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final List<Sample> staged = new ArrayList<>();
+  private final Map<String, Sample> stagedByKey = new HashMap<>();
+  private final List<String> stagedInvalidations = new ArrayList<>();
+  private final CRC32 crc = new CRC32();
+  private final AtomicLong sampled = new AtomicLong();
+  private final AtomicLong verified = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong mismatches = new AtomicLong();
+  private final AtomicLong superseded = new AtomicLong();
+  private ScheduledExecutorService executor;
+
+  WriteVerifier(String name, MemcachedClientIF client, MemcachedSinkConnectorConfig config) {
+    this.name = name;
+    this.client = client;
+    this.sampleRatio = config.verifySampleRatio;
+    this.delayNanos = TimeUnit.MILLISECONDS.toNanos(config.verifyDelayMs);
+    this.batchSize = config.verifyBatchSize;
+    this.maxPending = config.verifyMaxPending;
+    this.timeoutMs = config.opTimeout;
+  }
+
+  public void start() {
+    this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "memcached-verifier-" + this.name);
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.scheduleWithFixedDelay(this::verifySafely, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  public void stop() {
+    if (null != this.executor) {
+      this.executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Called for every record routed to the cluster, including writes that were dropped because the
+   * circuit for their node is open so that they show up as misses. Samples the write and marks
+   * earlier samples for the key, acknowledged or staged in this batch, as superseded.
+   *
+   * @param value the value written, or null for a delete.
+   */
+  public void stage(String key, Object value) {
+    if (!this.latest.isEmpty() && this.latest.containsKey(key)) {
+      this.stagedInvalidations.add(key);
+    }
+    if (!this.stagedByKey.isEmpty()) {
+      final Sample previous = this.stagedByKey.remove(key);
+      if (null != previous) {
+        previous.superseded = true;
+      }
+    }
+    if (!(value instanceof byte[]) || this.pending.get() + this.staged.size() >= this.maxPending ||
+        ThreadLocalRandom.current().nextDouble() >= this.sampleRatio) {
+      return;
+    }
+    final byte[] bytes = (byte[]) value;
+    this.crc.reset();
+    this.crc.update(bytes, 0, bytes.length);
+    final Sample sample = new Sample(key, this.crc.getValue(), bytes.length);
+    this.staged.add(sample);
+    this.stagedByKey.put(key, sample);
+  }
+
+  /**
+   * Queues the staged samples for verification once the batch has been acknowledged.
+   */
+  public void commitStaged() {
+    for (String key : this.stagedInvalidations) {
+      this.latest.remove(key);
+    }
+    this.stagedInvalidations.clear();
+    final long now = System.nanoTime();
+    for (Sample sample : this.staged) {
+      if (sample.superseded) {
+        this.superseded.incrementAndGet();
+        continue;
+      }
+      sample.acknowledged = now;
+      this.latest.put(sample.key, sample);
+      this.queue.add(sample);
+      this.pending.incrementAndGet();
+      this.sampled.incrementAndGet();
+    }
+    this.staged.clear();
+    this.stagedByKey.clear();
+  }
+
+  public void discardStaged() {
+    this.staged.clear();
+    this.stagedByKey.clear();
+    this.stagedInvalidations.clear();
+  }
+
+  void verifySafely() {
+    try {
+      boolean more;
+      do {
+        more = verify(System.nanoTime());
+      } while (more);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException | ExecutionException e) {
+      log.warn("verifySafely() - Exception thrown while verifying writes for cluster '{}'", this.name, e);
+    }
+  }
+
+  /**
+   * Reads back the samples that are due.
+   *
+   * @return true if a full batch was verified and more samples may be due.
+   */
+  boolean verify(long now) throws InterruptedException, ExecutionException {
+    final Map<String, Sample> batch = new HashMap<>();
+    Sample sample;
+    while (batch.size() < this.batchSize && null != (sample = this.queue.peek()) && now - sample.acknowledged >= this.delayNanos) {
+      this.queue.poll();
+      this.pending.decrementAndGet();
+      if (this.latest.get(sample.key) != sample) {
+        this.superseded.incrementAndGet();
+        continue;
+      }
+      batch.put(sample.key, sample);
+    }
+    if (batch.isEmpty()) {
+      return false;
+    }
+
+    final BulkFuture<Map<String, byte[]>> future = this.client.asyncGetBulk(batch.keySet(), ByteArrayTranscoder.INSTANCE);
+    final Map<String, byte[]> values = future.getSome(this.timeoutMs, TimeUnit.MILLISECONDS);
+    final boolean complete = !future.isTimeout();
+    final CRC32 crc = new CRC32();
+    for (Sample expected : batch.values()) {
+      this.latest.remove(expected.key, expected);
+      final byte[] actual = values.get(expected.key);
+      if (null == actual) {
+        if (complete) {
+          this.verified.incrementAndGet();
+          this.misses.incrementAndGet();
+          log.trace("verify() - Key '{}' is missing", expected.key);
+        }
+        continue;
+      }
+      this.verified.incrementAndGet();
+      crc.reset();
+      crc.update(actual, 0, actual.length);
+      if (actual.length == expected.length && crc.getValue() == expected.checksum) {
+        this.hits.incrementAndGet();
+      } else {
+        this.mismatches.incrementAndGet();
+        log.trace("verify() - Key '{}' does not match the value written", expected.key);
+      }
+    }
+    return batch.size() >= this.batchSize;
+  }
+
+  @Override
+  public long getSampled() {
+    return this.sampled.get();
+  }
+
+  @Override
+  public long getVerified() {
+    return this.verified.get();
+  }
+
+  @Override
+  public long getHits() {
+    return this.hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return this.misses.get();
+  }
+
+  @Override
+  public long getMismatches() {
+    return this.mismatches.get();
+  }
+
+  @Override
+  public long getSuperseded() {
+    return this.superseded.get();
+  }
+
+  @Override
+  public int getPending() {
+    return this.pending.get();
+  }
+
+  @Override
+  public double getHitRatio() {
+    final long verified = this.verified.get();
+    return 0 == verified ? 0D : (double) this.hits.get() / verified;
+  }
+
+  @Override
+  public double getLossRate() {
+    final long verified = this.verified.get();
+    return 0 == verified ? 0D : (double) this.misses.get() / verified;
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+/**
+ * Metrics reported by {@link WriteVerifier}.
+ */
+public interface WriteVerifierMXBean {
+  /**
+   * @return number of acknowledged writes that were sampled for verification.
+   */
+  long getSampled();
+
+  /**
+   * @return number of samples that were read back from memcached.
+   */
+  long getVerified();
+
+  /**
+   * @return number of samples where memcached returned the written value.
+   */
+  long getHits();
+
+  /**
+   * @return number of samples that were no longer in memcached. These were evicted, expired, lost
+   * to a node restart or dropped by the client.
+   */
+  long getMisses();
+
+  /**
+   * @return number of samples where memcached returned a different value than was written.
+   */
+  long getMismatches();
+
+  /**
+   * @return number of samples that were not verified because the key was written again.
+   */
+  long getSuperseded();
+
+  /**
+   * @return number of samples waiting to be verified.
+   */
+  int getPending();
+
+  /**
+   * @return ratio of verified samples that were found with the written value.
+   */
+  double getHitRatio();
+
+  /**
+   * @return ratio of verified samples that were missing from memcached.
+   */
+  double getLossRate();
+}
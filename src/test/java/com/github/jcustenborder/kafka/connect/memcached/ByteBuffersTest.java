@@ -0,0 +1,52 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class ByteBuffersTest {
+
+  @Test
+  public void wholeHeapBufferIsNotCopied() {
+    final byte[] expected = new byte[]{1, 2, 3, 4};
+    assertSame(expected, ByteBuffers.bytes(ByteBuffer.wrap(expected)));
+  }
+
+  @Test
+  public void slice() {
+    final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5});
+    buffer.position(1);
+    final ByteBuffer slice = buffer.slice();
+    slice.limit(3);
+    assertArrayEquals(new byte[]{2, 3, 4}, ByteBuffers.bytes(slice));
+    assertEquals(0, slice.position());
+  }
+
+  @Test
+  public void direct() {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(3);
+    buffer.put(new byte[]{7, 8, 9});
+    buffer.flip();
+    assertArrayEquals(new byte[]{7, 8, 9}, ByteBuffers.bytes(buffer));
+    assertEquals(3, buffer.remaining());
+  }
+}
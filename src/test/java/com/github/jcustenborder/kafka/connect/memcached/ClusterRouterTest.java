@@ -0,0 +1,150 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class ClusterRouterTest {
+  MemcachedCluster defaultCluster;
+  MemcachedCluster first;
+  MemcachedCluster second;
+
+  @BeforeEach
+  public void before() {
+    this.defaultCluster = mock(MemcachedCluster.class);
+    this.first = mock(MemcachedCluster.class);
+    this.second = mock(MemcachedCluster.class);
+  }
+
+  static ClusterConfig config(String name, Pattern topicsRegex, String headerName, String headerValue, String keyPrefix) {
+    return new ClusterConfig(name, Collections.emptyList(), topicsRegex, headerName, headerValue, keyPrefix);
+  }
+
+  static SinkRecord record(String topic) {
+    return new SinkRecord(topic, 0, Schema.STRING_SCHEMA, "key", Schema.STRING_SCHEMA, "value", 1L);
+  }
+
+  ClusterRouter router(ClusterRouter.Route... routes) {
+    return new ClusterRouter(this.defaultCluster, Arrays.asList(routes));
+  }
+
+  @Test
+  public void firstMatchingRouteWins() {
+    final ClusterRouter router = router(
+        new ClusterRouter.Route(config("first", Pattern.compile("orders.*"), null, null, null), this.first),
+        new ClusterRouter.Route(config("second", Pattern.compile(".*"), null, null, null), this.second)
+    );
+    assertSame(this.first, router.route(record("orders-v1"), "key"));
+    assertSame(this.second, router.route(record("customers"), "key"));
+  }
+
+  @Test
+  public void topicMatchIsCached() {
+    final ClusterRouter.Route route = new ClusterRouter.Route(config("first", Pattern.compile("orders.*"), null, null, null), this.first);
+    final ClusterRouter router = router(route);
+    assertSame(this.first, router.route(record("orders"), "key"));
+    assertSame(this.defaultCluster, router.route(record("customers"), "key"));
+    assertSame(this.first, router.route(record("orders"), "key"));
+    assertEquals(2, route.topicMatches.size());
+    assertEquals(Boolean.TRUE, route.topicMatches.get("orders"));
+    assertEquals(Boolean.FALSE, route.topicMatches.get("customers"));
+  }
+
+  @Test
+  public void keyPrefixMatchesTemplateKey() {
+    final ClusterRouter router = router(
+        new ClusterRouter.Route(config("first", null, null, null, "session:"), this.first)
+    );
+    final StringBuilder key = new StringBuilder("session:");
+    for (int i = 0; i < KeyBuilder.MAX_KEY_LENGTH; i++) {
+      key.append('x');
+    }
+    assertSame(this.first, router.route(record("topic"), key.toString()));
+    assertSame(this.defaultCluster, router.route(record("topic"), "user:1234"));
+  }
+
+  @Test
+  public void headerPresence() {
+    final ClusterRouter router = router(
+        new ClusterRouter.Route(config("first", null, "tenant", null, null), this.first)
+    );
+    final SinkRecord record = record("topic");
+    assertSame(this.defaultCluster, router.route(record, "key"));
+    record.headers().addString("tenant", "anything");
+    assertSame(this.first, router.route(record, "key"));
+  }
+
+  @Test
+  public void headerValue() {
+    final ClusterRouter router = router(
+        new ClusterRouter.Route(config("first", null, "tenant", "acme", null), this.first)
+    );
+    final SinkRecord string = record("topic");
+    string.headers().addString("tenant", "acme");
+    assertSame(this.first, router.route(string, "key"));
+
+    final SinkRecord other = record("topic");
+    other.headers().addString("tenant", "globex");
+    assertSame(this.defaultCluster, router.route(other, "key"));
+
+    final SinkRecord bytes = record("topic");
+    bytes.headers().addBytes("tenant", "acme".getBytes(StandardCharsets.UTF_8));
+    assertSame(this.first, router.route(bytes, "key"));
+
+    final SinkRecord buffer = record("topic");
+    buffer.headers().add("tenant", ByteBuffer.wrap("acme".getBytes(StandardCharsets.UTF_8)), Schema.BYTES_SCHEMA);
+    assertSame(this.first, router.route(buffer, "key"));
+
+    final SinkRecord empty = record("topic");
+    empty.headers().add("tenant", null, Schema.OPTIONAL_STRING_SCHEMA);
+    assertSame(this.defaultCluster, router.route(empty, "key"));
+  }
+
+  @Test
+  public void allRulesMustMatch() {
+    final ClusterRouter router = router(
+        new ClusterRouter.Route(config("first", Pattern.compile("orders"), "tenant", "acme", "order:"), this.first)
+    );
+    final SinkRecord record = record("orders");
+    record.headers().addString("tenant", "acme");
+    assertSame(this.first, router.route(record, "order:1"));
+    assertSame(this.defaultCluster, router.route(record, "invoice:1"));
+    assertSame(this.defaultCluster, router.route(record("orders"), "order:1"));
+  }
+
+  @Test
+  public void fallsBackToDefaultCluster() {
+    assertSame(this.defaultCluster, router().route(record("topic"), "key"));
+    final ClusterRouter router = router(
+        new ClusterRouter.Route(config("first", Pattern.compile("orders"), null, null, null), this.first),
+        new ClusterRouter.Route(config("second", null, null, null, "session:"), this.second)
+    );
+    assertSame(this.defaultCluster, router.route(record("customers"), "user:1"));
+  }
+}
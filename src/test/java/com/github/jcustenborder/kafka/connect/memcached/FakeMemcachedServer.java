@@ -0,0 +1,300 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-JVM server that speaks the memcached text protocol on a loopback port. It supports the
+ * commands the connector uses (set, get, delete, touch, version and stats) and can simulate slow
+ * nodes, restarts and evictions.
+ */
+class FakeMemcachedServer implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(FakeMemcachedServer.class);
+  static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+  interface SetListener {
+    void onSet(String key, byte[] value);
+  }
+
+  static class Item {
+    final int flags;
+    final byte[] data;
+
+    Item(int flags, byte[] data) {
+      this.flags = flags;
+      this.data = data;
+    }
+  }
+
+  final ServerSocket serverSocket;
+  final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+    final Thread thread = new Thread(r, "fake-memcached");
+    thread.setDaemon(true);
+    return thread;
+  });
+  final List<Socket> connections = new CopyOnWriteArrayList<>();
+  final AtomicLong sets = new AtomicLong();
+  final AtomicLong evictions = new AtomicLong();
+  final Map<String, Item> items;
+  volatile long startedAt = System.currentTimeMillis();
+  volatile long delayMs;
+  volatile SetListener setListener;
+  volatile boolean running = true;
+
+  /**
+   * @param maxItems number of items kept before the least recently used item is evicted.
+   */
+  FakeMemcachedServer(int maxItems) throws IOException {
+    this.items = new LinkedHashMap<String, Item>(16, 0.75F, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Item> eldest) {
+        if (size() > maxItems) {
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+    this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    this.executor.submit(this::accept);
+  }
+
+  public InetSocketAddress address() {
+    return new InetSocketAddress(this.serverSocket.getInetAddress(), this.serverSocket.getLocalPort());
+  }
+
+  /**
+   * Delays every response by the supplied number of milliseconds to simulate a slow node.
+   */
+  public void delay(long delayMs) {
+    this.delayMs = delayMs;
+  }
+
+  /**
+   * Simulates a node restart by dropping every connection and clearing all items.
+   */
+  public void restart() {
+    log.info("restart() - Restarting {}", address());
+    synchronized (this.items) {
+      this.items.clear();
+    }
+    this.startedAt = System.currentTimeMillis();
+    for (Socket socket : this.connections) {
+      closeQuietly(socket);
+    }
+  }
+
+  public byte[] get(String key) {
+    synchronized (this.items) {
+      final Item item = this.items.get(key);
+      return null == item ? null : item.data;
+    }
+  }
+
+  void accept() {
+    while (this.running) {
+      try {
+        final Socket socket = this.serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        this.connections.add(socket);
+        this.executor.submit(() -> handle(socket));
+      } catch (IOException e) {
+        if (this.running) {
+          log.warn("accept() - Exception thrown", e);
+        }
+      }
+    }
+  }
+
+  void handle(Socket socket) {
+    try (InputStream input = new BufferedInputStream(socket.getInputStream());
+         OutputStream output = new BufferedOutputStream(socket.getOutputStream())) {
+      String line;
+      while (null != (line = readLine(input))) {
+        final long delay = this.delayMs;
+        if (delay > 0) {
+          TimeUnit.MILLISECONDS.sleep(delay);
+        }
+        if (!process(line, input, output)) {
+          break;
+        }
+        if (input.available() == 0) {
+          output.flush();
+        }
+      }
+    } catch (SocketException | EOFException e) {
+      log.trace("handle() - Connection closed", e);
+    } catch (IOException e) {
+      log.warn("handle() - Exception thrown", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      this.connections.remove(socket);
+      closeQuietly(socket);
+    }
+  }
+
+  boolean process(String line, InputStream input, OutputStream output) throws IOException {
+    final String[] parts = line.split(" ");
+    switch (parts[0]) {
+      case "set": {
+        final String key = parts[1];
+        final int flags = Integer.parseInt(parts[2]);
+        final int length = Integer.parseInt(parts[4]);
+        final boolean noreply = parts.length > 5 && "noreply".equals(parts[5]);
+        final byte[] data = readBytes(input, length);
+        readBytes(input, CRLF.length);
+        synchronized (this.items) {
+          this.items.put(key, new Item(flags, data));
+        }
+        this.sets.incrementAndGet();
+        final SetListener listener = this.setListener;
+        if (null != listener) {
+          listener.onSet(key, data);
+        }
+        if (!noreply) {
+          write(output, "STORED");
+        }
+        return true;
+      }
+      case "get":
+      case "gets": {
+        for (int i = 1; i < parts.length; i++) {
+          final Item item;
+          synchronized (this.items) {
+            item = this.items.get(parts[i]);
+          }
+          if (null != item) {
+            write(output, String.format("VALUE %s %s %s", parts[i], item.flags, item.data.length));
+            output.write(item.data);
+            output.write(CRLF);
+          }
+        }
+        write(output, "END");
+        return true;
+      }
+      case "delete": {
+        final Item removed;
+        synchronized (this.items) {
+          removed = this.items.remove(parts[1]);
+        }
+        write(output, null != removed ? "DELETED" : "NOT_FOUND");
+        return true;
+      }
+      case "touch": {
+        final boolean found;
+        synchronized (this.items) {
+          found = null != this.items.get(parts[1]);
+        }
+        write(output, found ? "TOUCHED" : "NOT_FOUND");
+        return true;
+      }
+      case "version":
+        write(output, "VERSION 1.6.0-fake");
+        return true;
+      case "stats": {
+        final long uptime = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - this.startedAt);
+        write(output, "STAT uptime " + uptime);
+        synchronized (this.items) {
+          write(output, "STAT curr_items " + this.items.size());
+        }
+        write(output, "STAT evictions " + this.evictions.get());
+        write(output, "END");
+        return true;
+      }
+      case "quit":
+        return false;
+      default:
+        write(output, "ERROR");
+        return true;
+    }
+  }
+
+  static void write(OutputStream output, String line) throws IOException {
+    output.write(line.getBytes(StandardCharsets.US_ASCII));
+    output.write(CRLF);
+  }
+
+  static String readLine(InputStream input) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+    int b;
+    while (-1 != (b = input.read())) {
+      if ('\n' == b) {
+        final byte[] bytes = buffer.toByteArray();
+        final int length = bytes.length > 0 && '\r' == bytes[bytes.length - 1] ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+      }
+      buffer.write(b);
+    }
+    return null;
+  }
+
+  static byte[] readBytes(InputStream input, int length) throws IOException {
+    final byte[] result = new byte[length];
+    int offset = 0;
+    while (offset < length) {
+      final int read = input.read(result, offset, length - offset);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      offset += read;
+    }
+    return result;
+  }
+
+  static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      log.trace("closeQuietly() - Exception thrown", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    this.running = false;
+    closeQuietly(this.serverSocket);
+    for (Socket socket : this.connections) {
+      closeQuietly(socket);
+    }
+    this.executor.shutdownNow();
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HotKeySketchTest {
+
+  @Test
+  public void topKeys() {
+    final long[] now = {0L};
+    HotKeySketch sketch = new HotKeySketch(3, 10, key -> key.startsWith("a") ? "node-a" : "node-b", 0L);
+    sketch.clock = () -> now[0];
+    for (int i = 0; i < 10000; i++) {
+      sketch.record("cold" + i, 10, 0L);
+      if (0 == i % 10) {
+        sketch.record("a-hot", 100, 0L);
+      }
+      if (0 == i % 20) {
+        sketch.record("b-warm", 1, 0L);
+      }
+    }
+    assertTrue(sketch.getHotKeys().isEmpty(), "Nothing should be published before the window ends.");
+
+    sketch.record("cold", 0, TimeUnit.SECONDS.toNanos(10));
+    final List<HotKey> hotKeys = sketch.getHotKeys();
+    assertEquals(3, hotKeys.size());
+    assertEquals("a-hot", hotKeys.get(0).getKey());
+    assertEquals("node-a", hotKeys.get(0).getNode());
+    assertEquals(100D, hotKeys.get(0).getWritesPerSecond(), 10D);
+    assertEquals(10000D, hotKeys.get(0).getBytesPerSecond(), 1000D);
+    assertEquals("b-warm", hotKeys.get(1).getKey());
+    assertEquals(1, sketch.getHotKeysForNode("node-a").size());
+    assertEquals(10000L + 1000L + 500L, sketch.getWrites());
+
+    now[0] = TimeUnit.SECONDS.toNanos(35);
+    assertTrue(sketch.getHotKeys().isEmpty(), "Idle windows should be rolled over when read.");
+    assertEquals(0L, sketch.getWrites());
+  }
+
+  @Test
+  public void rowsAreIndependent() {
+    // "Aa" and "BB" share String.hashCode() so they must still differ in the 64-bit hash.
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    assertTrue(HotKeySketch.hash64("Aa") != HotKeySketch.hash64("BB"));
+  }
+}
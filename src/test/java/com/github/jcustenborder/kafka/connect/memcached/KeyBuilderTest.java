@@ -0,0 +1,120 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.google.common.base.Strings;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KeyBuilderTest {
+  static final ConnectionFactoryBuilder.Protocol BINARY = ConnectionFactoryBuilder.Protocol.BINARY;
+  static final ConnectionFactoryBuilder.Protocol TEXT = ConnectionFactoryBuilder.Protocol.TEXT;
+
+  static SinkRecord record(Schema keySchema, Object key) {
+    return new SinkRecord("topic", 2, keySchema, key, Schema.BYTES_SCHEMA, new byte[0], 1234L);
+  }
+
+  @Test
+  public void key() {
+    KeyBuilder builder = new KeyBuilder("${key}", null, BINARY);
+    assertEquals("foo", builder.build(record(Schema.STRING_SCHEMA, "foo")));
+    assertEquals("12", builder.build(record(Schema.INT32_SCHEMA, 12)));
+  }
+
+  @Test
+  public void bytesKeyIsHexEncoded() {
+    KeyBuilder builder = new KeyBuilder("${key}", null, BINARY);
+    assertEquals("00ff61", builder.build(record(Schema.BYTES_SCHEMA, new byte[]{0, (byte) 0xff, 'a'})));
+  }
+
+  @Test
+  public void template() {
+    final Schema schema = SchemaBuilder.struct()
+        .field("id", Schema.INT64_SCHEMA)
+        .build();
+    final Struct key = new Struct(schema)
+        .put("id", 42L);
+    final SinkRecord record = record(schema, key);
+    record.headers().addString("tenant", "acme");
+    KeyBuilder builder = new KeyBuilder("${header.tenant}:${topic}:${partition}:${key.id}", null, BINARY);
+    assertEquals("acme:topic:2:42", builder.build(record));
+  }
+
+  @Test
+  public void missingHeader() {
+    KeyBuilder builder = new KeyBuilder("${header.tenant}", null, BINARY);
+    assertThrows(DataException.class, () -> builder.build(record(Schema.STRING_SCHEMA, "foo")));
+  }
+
+  @Test
+  public void nullKey() {
+    KeyBuilder builder = new KeyBuilder("${key}", "SHA-256", BINARY);
+    assertThrows(DataException.class, () -> builder.build(record(Schema.OPTIONAL_STRING_SCHEMA, null)));
+  }
+
+  @Test
+  public void longKeyIsHashed() {
+    final String key = Strings.repeat("a", 251);
+    KeyBuilder builder = new KeyBuilder("${key}", "SHA-256", BINARY);
+    final String actual = builder.build(record(Schema.STRING_SCHEMA, key));
+    assertEquals(KeyBuilder.HASH_PREFIX.length() + 64, actual.length());
+    assertTrue(actual.startsWith(KeyBuilder.HASH_PREFIX));
+    assertEquals(actual, builder.build(record(Schema.STRING_SCHEMA, key)));
+  }
+
+  @Test
+  public void hashPrefixIsReserved() {
+    KeyBuilder builder = new KeyBuilder("${key}", "SHA-256", BINARY);
+    final String hashed = builder.build(record(Schema.STRING_SCHEMA, Strings.repeat("a", 251)));
+    final String actual = builder.build(record(Schema.STRING_SCHEMA, hashed));
+    assertTrue(actual.startsWith(KeyBuilder.HASH_PREFIX));
+    assertNotEquals(hashed, actual);
+    assertEquals("h:foo", new KeyBuilder("${key}", null, BINARY).build(record(Schema.STRING_SCHEMA, "h:foo")));
+  }
+
+  @Test
+  public void longKeyWithoutHashing() {
+    KeyBuilder builder = new KeyBuilder("${key}", null, BINARY);
+    assertThrows(DataException.class, () -> builder.build(record(Schema.STRING_SCHEMA, Strings.repeat("a", 251))));
+  }
+
+  @Test
+  public void whitespace() {
+    assertEquals("foo bar", new KeyBuilder("${key}", null, BINARY).build(record(Schema.STRING_SCHEMA, "foo bar")));
+    assertThrows(
+        DataException.class,
+        () -> new KeyBuilder("${key}", null, TEXT).build(record(Schema.STRING_SCHEMA, "foo bar"))
+    );
+  }
+
+  @Test
+  public void invalidTemplate() {
+    assertThrows(ConfigException.class, () -> new KeyBuilder("${key", null, BINARY));
+    assertThrows(ConfigException.class, () -> new KeyBuilder("${value}", null, BINARY));
+    assertThrows(ConfigException.class, () -> new KeyBuilder("", null, BINARY));
+  }
+}
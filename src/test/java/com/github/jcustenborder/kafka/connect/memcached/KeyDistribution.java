@@ -0,0 +1,80 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Key popularity models used by the soak harness.
+ */
+enum KeyDistribution {
+  /**
+   * Every key in the key space is equally likely.
+   */
+  UNIFORM {
+    @Override
+    Sampler sampler(int keySpace, long seed) {
+      final Random random = new Random(seed);
+      return () -> random.nextInt(keySpace);
+    }
+  },
+  /**
+   * Key popularity follows a zipfian distribution with an exponent of 0.99, the skew commonly used
+   * to model cache workloads.
+   */
+  ZIPFIAN {
+    @Override
+    Sampler sampler(int keySpace, long seed) {
+      final double[] cdf = new double[keySpace];
+      double sum = 0D;
+      for (int i = 0; i < keySpace; i++) {
+        sum += 1D / Math.pow(i + 1, ZIPFIAN_EXPONENT);
+        cdf[i] = sum;
+      }
+      final double total = sum;
+      final Random random = new Random(seed);
+      return () -> {
+        final int index = Arrays.binarySearch(cdf, random.nextDouble() * total);
+        return Math.min(keySpace - 1, index < 0 ? -index - 1 : index);
+      };
+    }
+  },
+  /**
+   * Ninety percent of the writes go to ten keys, the remainder is spread over the key space.
+   */
+  HOT_KEY {
+    @Override
+    Sampler sampler(int keySpace, long seed) {
+      final Random random = new Random(seed);
+      final int hotKeys = Math.min(HOT_KEYS, keySpace);
+      return () -> random.nextInt(100) < HOT_KEY_PERCENT ? random.nextInt(hotKeys) : random.nextInt(keySpace);
+    }
+  };
+
+  static final double ZIPFIAN_EXPONENT = 0.99D;
+  static final int HOT_KEYS = 10;
+  static final int HOT_KEY_PERCENT = 90;
+
+  interface Sampler {
+    /**
+     * @return index of the next key, between 0 inclusive and the key space exclusive.
+     */
+    int next();
+  }
+
+  abstract Sampler sampler(int keySpace, long seed);
+}
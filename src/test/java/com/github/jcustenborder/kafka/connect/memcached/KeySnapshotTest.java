@@ -0,0 +1,147 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import net.spy.memcached.MemcachedClientIF;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KeySnapshotTest {
+  static final SocketAddress NODE_A = InetSocketAddress.createUnresolved("a", 11211);
+  static final SocketAddress NODE_B = InetSocketAddress.createUnresolved("b", 11211);
+
+  static Map<SocketAddress, Map<String, String>> stats(long uptimeA, long uptimeB) {
+    return ImmutableMap.of(
+        NODE_A, ImmutableMap.of(KeySnapshot.UPTIME_STAT, Long.toString(uptimeA)),
+        NODE_B, ImmutableMap.of(KeySnapshot.UPTIME_STAT, Long.toString(uptimeB))
+    );
+  }
+
+  @Test
+  public void restartedNodes() {
+    KeySnapshot snapshot = new KeySnapshot(
+        new File("target"),
+        MemcachedCluster.DEFAULT_NAME,
+        new MemcachedSinkConnectorConfig(ImmutableMap.of())
+    );
+    assertTrue(snapshot.restartedNodes(stats(1000L, 50L), 10000L).isEmpty());
+    assertTrue(snapshot.restartedNodes(stats(1010L, 61L), 10010L).isEmpty());
+    assertEquals(Collections.singletonList(NODE_A), snapshot.restartedNodes(stats(3L, 70L), 10020L));
+    assertTrue(snapshot.restartedNodes(stats(13L, 80L), 10030L).isEmpty());
+  }
+
+  @Test
+  public void staleSegmentsAreDiscarded() throws IOException {
+    final File directory = Files.createTempDirectory("snapshot").toFile();
+    final TopicPartition current = new TopicPartition("topic", 0);
+    final TopicPartition stale = new TopicPartition("topic", 1);
+    final TopicPartition unknown = new TopicPartition("topic", 2);
+    final ImmutableList<TopicPartition> partitions = ImmutableList.of(current, stale, unknown);
+    KeySnapshot snapshot = new KeySnapshot(
+        directory,
+        MemcachedCluster.DEFAULT_NAME,
+        new MemcachedSinkConnectorConfig(ImmutableMap.of())
+    );
+    for (TopicPartition topicPartition : partitions) {
+      snapshot.append(topicPartition.topic(), topicPartition.partition(), "key", "value".getBytes(StandardCharsets.UTF_8));
+      snapshot.checkpoint(topicPartition, 10L);
+    }
+    snapshot.close(partitions);
+
+    snapshot.open(partitions, ImmutableMap.of(current, 10L, stale, 20L));
+    assertTrue(snapshot.file(current).exists());
+    assertEquals(Collections.singletonList("key"), snapshot.segments.get(current).keys());
+    assertFalse(snapshot.file(stale).exists());
+    assertFalse(snapshot.file(unknown).exists());
+    assertEquals(1, snapshot.segments.size());
+    snapshot.stop();
+    assertTrue(snapshot.file(current).delete());
+    assertTrue(directory.delete());
+  }
+
+  @Test
+  public void rehydrateAddsOutsideSegmentLock() throws Exception {
+    final File directory = Files.createTempDirectory("snapshot").toFile();
+    final TopicPartition topicPartition = new TopicPartition("topic", 0);
+    final MemcachedClientIF client = mock(MemcachedClientIF.class);
+    final NodeLocator locator = mock(NodeLocator.class);
+    final MemcachedNode node = mock(MemcachedNode.class);
+    final Future<Boolean> future = mock(Future.class);
+    when(future.get(anyLong(), any())).thenReturn(true);
+    when(node.getSocketAddress()).thenReturn(NODE_A);
+    when(locator.getPrimary(anyString())).thenReturn(node);
+    KeySnapshot snapshot = new KeySnapshot(
+        directory,
+        MemcachedCluster.DEFAULT_NAME,
+        new MemcachedSinkConnectorConfig(ImmutableMap.of())
+    );
+    snapshot.client = client;
+    snapshot.locator = locator;
+    for (int i = 0; i < 3; i++) {
+      snapshot.append(topicPartition.topic(), topicPartition.partition(), "key" + i, "value".getBytes(StandardCharsets.UTF_8));
+    }
+    final SnapshotSegment segment = snapshot.segments.get(topicPartition);
+    when(client.add(anyString(), anyInt(), any(byte[].class), eq(ByteArrayTranscoder.INSTANCE))).thenAnswer(invocation -> {
+      assertFalse(Thread.holdsLock(segment));
+      return future;
+    });
+    snapshot.rehydrate(NODE_A);
+    verify(client, times(3)).add(anyString(), anyInt(), any(byte[].class), eq(ByteArrayTranscoder.INSTANCE));
+    snapshot.stop();
+    assertTrue(snapshot.file(topicPartition).delete());
+    assertTrue(directory.delete());
+  }
+
+  @Test
+  public void expiration() {
+    final long writtenAt = TimeUnit.SECONDS.toMillis(1500000000L);
+    assertEquals(0, KeySnapshot.expiration(0, writtenAt, writtenAt + TimeUnit.DAYS.toMillis(365)));
+    assertEquals(60, KeySnapshot.expiration(60, writtenAt, writtenAt));
+    assertEquals(31, KeySnapshot.expiration(60, writtenAt, writtenAt + 29500L));
+    assertEquals(KeySnapshot.EXPIRED, KeySnapshot.expiration(60, writtenAt, writtenAt + 60000L));
+    final int absolute = 1500000100;
+    assertEquals(absolute, KeySnapshot.expiration(absolute, writtenAt, writtenAt));
+    assertEquals(KeySnapshot.EXPIRED, KeySnapshot.expiration(absolute, writtenAt, TimeUnit.SECONDS.toMillis(absolute)));
+  }
+}
@@ -16,10 +16,17 @@
 package com.github.jcustenborder.kafka.connect.memcached;
 
 import com.google.common.collect.ImmutableMap;
+import org.apache.kafka.common.config.ConfigException;
 import org.junit.jupiter.api.Test;
 
+import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 public class MemcachedSinkConnectorConfigTest {
 
   public static Map<String, String> settings() {
@@ -33,4 +40,55 @@ public class MemcachedSinkConnectorConfigTest {
 
   }
 
+  @Test
+  public void invalidKeyTemplate() {
+    assertThrows(ConfigException.class, () -> MemcachedSinkConnectorConfig.config().parse(
+        ImmutableMap.of(MemcachedSinkConnectorConfig.KEY_TEMPLATE_CONF, "${unknown}")
+    ));
+  }
+
+  @Test
+  public void clusters() {
+    MemcachedSinkConnectorConfig config = new MemcachedSinkConnectorConfig(
+        ImmutableMap.of(
+            MemcachedSinkConnectorConfig.CLUSTERS_CONF, "sessions,profiles",
+            "memcached.cluster.sessions.hosts", "sessions-1:11211,sessions-2:11211",
+            "memcached.cluster.sessions.topics.regex", "sessions\\..*",
+            "memcached.cluster.profiles.hosts", "profiles-1:11311",
+            "memcached.cluster.profiles.header.name", "tenant"
+        )
+    );
+    assertEquals(2, config.clusters.size());
+    final ClusterConfig sessions = config.clusters.get(0);
+    assertEquals("sessions", sessions.name);
+    assertEquals(
+        Arrays.asList(new InetSocketAddress("sessions-1", 11211), new InetSocketAddress("sessions-2", 11211)),
+        sessions.hosts
+    );
+    assertTrue(sessions.topicsRegex.matcher("sessions.web").matches());
+    final ClusterConfig profiles = config.clusters.get(1);
+    assertEquals("tenant", profiles.headerName);
+    assertEquals(11311, profiles.hosts.get(0).getPort());
+  }
+
+  @Test
+  public void clusterWithoutRules() {
+    assertThrows(ConfigException.class, () -> new MemcachedSinkConnectorConfig(
+        ImmutableMap.of(
+            MemcachedSinkConnectorConfig.CLUSTERS_CONF, "sessions",
+            "memcached.cluster.sessions.hosts", "sessions-1:11211"
+        )
+    ));
+  }
+
+  @Test
+  public void clusterWithoutHosts() {
+    assertThrows(ConfigException.class, () -> new MemcachedSinkConnectorConfig(
+        ImmutableMap.of(
+            MemcachedSinkConnectorConfig.CLUSTERS_CONF, "sessions",
+            "memcached.cluster.sessions.key.prefix", "session:"
+        )
+    ));
+  }
+
 }
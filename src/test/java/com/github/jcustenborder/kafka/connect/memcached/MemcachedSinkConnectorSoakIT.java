@@ -0,0 +1,309 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.google.common.base.Joiner;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.connect.converters.ByteArrayConverter;
+import org.apache.kafka.connect.runtime.ConnectorConfig;
+import org.apache.kafka.connect.sink.SinkConnector;
+import org.apache.kafka.connect.storage.StringConverter;
+import org.apache.kafka.connect.util.clusters.EmbeddedConnectCluster;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Offline soak test that runs the connector inside an embedded Connect worker against an in-JVM
+ * Kafka broker and {@link FakeMemcachedServer} nodes. Each {@link KeyDistribution} is run in turn
+ * and a report with the throughput, the end to end latency percentiles and the delivery lag is
+ * written to {@code target/soak}. The delivery lag is the number of records the producer has sent
+ * that have not reached memcached yet, not the consumer group lag reported by the broker. The test
+ * only runs when {@code -Dmemcached.soak.enabled=true} is passed and fails when the throughput or
+ * p99 latency regress against the reports in {@code memcached.soak.baseline.dir} by more than
+ * {@code memcached.soak.max.regression}.
+ */
+@EnabledIfSystemProperty(named = "memcached.soak.enabled", matches = "true")
+public class MemcachedSinkConnectorSoakIT {
+  private static final Logger log = LoggerFactory.getLogger(MemcachedSinkConnectorSoakIT.class);
+  static final String CONNECTOR_NAME = "memcached-soak";
+  static final int HEADER_LENGTH = 16;
+
+  static final int RECORDS = Integer.getInteger("memcached.soak.records", 500000);
+  static final int KEY_SPACE = Integer.getInteger("memcached.soak.key.space", 100000);
+  static final int VALUE_SIZE = Math.max(HEADER_LENGTH, Integer.getInteger("memcached.soak.value.size", 256));
+  static final int PARTITIONS = Integer.getInteger("memcached.soak.partitions", 6);
+  static final int TASKS = Integer.getInteger("memcached.soak.tasks", 1);
+  static final int NODES = Integer.getInteger("memcached.soak.nodes", 3);
+  static final int MAX_ITEMS = Integer.getInteger("memcached.soak.max.items", Integer.MAX_VALUE);
+  static final long SLOW_NODE_MS = Long.getLong("memcached.soak.slow.node.msecs", 0L);
+  static final boolean RESTART_NODE = Boolean.getBoolean("memcached.soak.restart.node");
+  static final long TIMEOUT_SECS = Long.getLong("memcached.soak.timeout.secs", 600L);
+  static final double MAX_REGRESSION = Double.parseDouble(System.getProperty("memcached.soak.max.regression", "0.1"));
+  static final File REPORT_DIR = new File(System.getProperty("memcached.soak.report.dir", "target/soak"));
+  static final String BASELINE_DIR = System.getProperty("memcached.soak.baseline.dir");
+
+  volatile int produced;
+
+  @BeforeAll
+  public static void beforeAll() {
+    System.setProperty("net.spy.log.LoggerImpl", "net.spy.memcached.compat.log.SLF4JLogger");
+  }
+
+  /**
+   * Collects the sequence numbers and the end to end latency of every record that reaches one of
+   * the fake nodes. Redelivered records are only counted once.
+   */
+  static class Collector implements FakeMemcachedServer.SetListener {
+    final BitSet seen = new BitSet(RECORDS);
+    final long[] latencies = new long[RECORDS];
+    int received;
+    long lastReceivedAt;
+
+    @Override
+    public void onSet(String key, byte[] value) {
+      if (key.startsWith("__kafka.offset.") || value.length < HEADER_LENGTH) {
+        return;
+      }
+      final long now = System.nanoTime();
+      final ByteBuffer buffer = ByteBuffer.wrap(value);
+      final long sentAt = buffer.getLong();
+      final int sequence = (int) buffer.getLong();
+      synchronized (this) {
+        if (sequence < 0 || sequence >= RECORDS || this.seen.get(sequence)) {
+          return;
+        }
+        this.seen.set(sequence);
+        this.latencies[this.received++] = now - sentAt;
+        this.lastReceivedAt = now;
+      }
+    }
+
+    synchronized int received() {
+      return this.received;
+    }
+
+    synchronized long percentileNanos(double percentile) {
+      if (0 == this.received) {
+        return 0L;
+      }
+      final long[] sorted = Arrays.copyOf(this.latencies, this.received);
+      Arrays.sort(sorted);
+      final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+  }
+
+  @TestFactory
+  public Stream<DynamicTest> soak() {
+    return Arrays.stream(KeyDistribution.values())
+        .map(distribution -> dynamicTest(distribution.name().toLowerCase(Locale.ROOT), () -> soak(distribution)));
+  }
+
+  void soak(KeyDistribution distribution) throws Exception {
+    final String topic = "soak-" + distribution.name().toLowerCase(Locale.ROOT).replace('_', '-');
+    final Collector collector = new Collector();
+    final List<FakeMemcachedServer> servers = new ArrayList<>(NODES);
+    final List<String> hosts = new ArrayList<>(NODES);
+    EmbeddedConnectCluster connect = new EmbeddedConnectCluster.Builder()
+        .name("memcached-soak-" + distribution.name().toLowerCase(Locale.ROOT))
+        .numWorkers(1)
+        .numBrokers(1)
+        .build();
+    try {
+      for (int i = 0; i < NODES; i++) {
+        FakeMemcachedServer server = new FakeMemcachedServer(MAX_ITEMS);
+        server.setListener = collector;
+        servers.add(server);
+        hosts.add(String.format("%s:%s", server.address().getHostString(), server.address().getPort()));
+      }
+      if (SLOW_NODE_MS > 0) {
+        servers.get(0).delay(SLOW_NODE_MS);
+      }
+
+      connect.start();
+      connect.kafka().createTopic(topic, PARTITIONS);
+
+      Map<String, String> settings = new LinkedHashMap<>();
+      settings.put(ConnectorConfig.CONNECTOR_CLASS_CONFIG, MemcachedSinkConnector.class.getName());
+      settings.put(ConnectorConfig.TASKS_MAX_CONFIG, Integer.toString(TASKS));
+      settings.put(SinkConnector.TOPICS_CONFIG, topic);
+      settings.put(ConnectorConfig.KEY_CONVERTER_CLASS_CONFIG, StringConverter.class.getName());
+      settings.put(ConnectorConfig.VALUE_CONVERTER_CLASS_CONFIG, ByteArrayConverter.class.getName());
+      settings.put(MemcachedSinkConnectorConfig.HOSTS_CONF, Joiner.on(',').join(hosts));
+      settings.put(MemcachedSinkConnectorConfig.PROTOCOL_CONF, ConnectionFactoryBuilder.Protocol.TEXT.name());
+      connect.configureConnector(CONNECTOR_NAME, settings);
+
+      final List<long[]> deliveryLagSamples = new ArrayList<>();
+      final long startedAt = System.nanoTime();
+      final long deadline = startedAt + TimeUnit.SECONDS.toNanos(TIMEOUT_SECS);
+      final Thread producerThread = new Thread(() -> produce(connect, topic, distribution), "soak-producer");
+      producerThread.setDaemon(true);
+      producerThread.start();
+
+      boolean restarted = false;
+      while (collector.received() < RECORDS && System.nanoTime() < deadline) {
+        TimeUnit.SECONDS.sleep(1);
+        final int received = collector.received();
+        final long elapsed = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedAt);
+        final long deliveryLag = this.produced - received;
+        deliveryLagSamples.add(new long[]{elapsed, this.produced, received, deliveryLag});
+        log.info("soak() - {} elapsed = {}s produced = {} received = {} delivery.lag = {}", distribution, elapsed, this.produced, received, deliveryLag);
+        if (RESTART_NODE && !restarted && received >= RECORDS / 2) {
+          servers.get(0).restart();
+          restarted = true;
+        }
+      }
+      producerThread.join(TimeUnit.SECONDS.toMillis(10));
+      assertEquals(RECORDS, collector.received(), "Not every record was written before the timeout.");
+
+      final Properties report = report(distribution, collector, startedAt, deliveryLagSamples, servers);
+      writeReport(distribution, report, deliveryLagSamples);
+      checkBaseline(distribution, report);
+    } finally {
+      connect.stop();
+      for (FakeMemcachedServer server : servers) {
+        server.close();
+      }
+    }
+  }
+
+  void produce(EmbeddedConnectCluster connect, String topic, KeyDistribution distribution) {
+    this.produced = 0;
+    Map<String, Object> settings = new LinkedHashMap<>();
+    settings.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, connect.kafka().bootstrapServers());
+    settings.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+    settings.put(ProducerConfig.ACKS_CONFIG, "1");
+    final KeyDistribution.Sampler sampler = distribution.sampler(KEY_SPACE, distribution.ordinal());
+    try (KafkaProducer<String, byte[]> producer = new KafkaProducer<>(settings, new StringSerializer(), new ByteArraySerializer())) {
+      for (int sequence = 0; sequence < RECORDS; sequence++) {
+        final byte[] value = new byte[VALUE_SIZE];
+        ByteBuffer.wrap(value)
+            .putLong(System.nanoTime())
+            .putLong(sequence);
+        producer.send(new ProducerRecord<>(topic, "key" + sampler.next(), value));
+        this.produced = sequence + 1;
+      }
+    }
+  }
+
+  Properties report(KeyDistribution distribution, Collector collector, long startedAt, List<long[]> deliveryLagSamples, List<FakeMemcachedServer> servers) {
+    final double seconds = Math.max(1L, collector.lastReceivedAt - startedAt) / (double) TimeUnit.SECONDS.toNanos(1);
+    long maxDeliveryLag = 0;
+    for (long[] sample : deliveryLagSamples) {
+      maxDeliveryLag = Math.max(maxDeliveryLag, sample[3]);
+    }
+    long sets = 0;
+    long evictions = 0;
+    for (FakeMemcachedServer server : servers) {
+      sets += server.sets.get();
+      evictions += server.evictions.get();
+    }
+    Properties report = new Properties();
+    report.setProperty("distribution", distribution.name());
+    report.setProperty("records", Integer.toString(RECORDS));
+    report.setProperty("key.space", Integer.toString(KEY_SPACE));
+    report.setProperty("value.size", Integer.toString(VALUE_SIZE));
+    report.setProperty("nodes", Integer.toString(NODES));
+    report.setProperty("seconds", String.format(Locale.ROOT, "%.3f", seconds));
+    report.setProperty("throughput.records.per.sec", String.format(Locale.ROOT, "%.1f", RECORDS / seconds));
+    report.setProperty("latency.p50.msecs", millis(collector.percentileNanos(0.50D)));
+    report.setProperty("latency.p99.msecs", millis(collector.percentileNanos(0.99D)));
+    report.setProperty("latency.p999.msecs", millis(collector.percentileNanos(0.999D)));
+    report.setProperty("delivery.lag.max", Long.toString(maxDeliveryLag));
+    report.setProperty("sets", Long.toString(sets));
+    report.setProperty("evictions", Long.toString(evictions));
+    log.info("report() - {}", report);
+    return report;
+  }
+
+  static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+  }
+
+  void writeReport(KeyDistribution distribution, Properties report, List<long[]> deliveryLagSamples) throws IOException {
+    assertTrue(REPORT_DIR.isDirectory() || REPORT_DIR.mkdirs(), "Could not create " + REPORT_DIR);
+    final String name = distribution.name().toLowerCase(Locale.ROOT);
+    try (OutputStream outputStream = new FileOutputStream(new File(REPORT_DIR, name + ".properties"))) {
+      report.store(outputStream, "memcached soak " + name);
+    }
+    try (PrintWriter writer = new PrintWriter(new File(REPORT_DIR, name + "-delivery-lag.csv"), StandardCharsets.UTF_8.name())) {
+      writer.println("elapsed.secs,produced,received,delivery.lag");
+      for (long[] sample : deliveryLagSamples) {
+        writer.printf(Locale.ROOT, "%s,%s,%s,%s%n", sample[0], sample[1], sample[2], sample[3]);
+      }
+    }
+  }
+
+  void checkBaseline(KeyDistribution distribution, Properties report) throws IOException {
+    if (null == BASELINE_DIR) {
+      return;
+    }
+    final File baselineFile = new File(BASELINE_DIR, distribution.name().toLowerCase(Locale.ROOT) + ".properties");
+    if (!baselineFile.isFile()) {
+      log.warn("checkBaseline() - No baseline found at {}", baselineFile);
+      return;
+    }
+    Properties baseline = new Properties();
+    try (InputStream inputStream = new FileInputStream(baselineFile)) {
+      baseline.load(inputStream);
+    }
+    final double throughput = Double.parseDouble(report.getProperty("throughput.records.per.sec"));
+    final double baselineThroughput = Double.parseDouble(baseline.getProperty("throughput.records.per.sec"));
+    assertTrue(
+        throughput >= baselineThroughput * (1D - MAX_REGRESSION),
+        String.format(Locale.ROOT, "%s throughput regressed from %.1f to %.1f records/sec.", distribution, baselineThroughput, throughput)
+    );
+    final double p99 = Double.parseDouble(report.getProperty("latency.p99.msecs"));
+    final double baselineP99 = Double.parseDouble(baseline.getProperty("latency.p99.msecs"));
+    assertTrue(
+        p99 <= baselineP99 * (1D + MAX_REGRESSION),
+        String.format(Locale.ROOT, "%s p99 latency regressed from %.3f to %.3f msecs.", distribution, baselineP99, p99)
+    );
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.google.common.collect.ImmutableMap;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures the bytes {@link MemcachedSinkTask#put(java.util.Collection)} allocates per record
+ * against a client that completes every operation immediately, with the circuit breaker enabled so
+ * each record gets a completion listener. Keys are built from a template so every record allocates
+ * a template key, and TOUCH adds the per batch key set. The client and node are Mockito stubs which
+ * allocate on every call; {@link #client(Blackhole)} makes the same calls on their own so the
+ * difference in {@code gc.alloc.rate.norm} between the two is what put() itself allocates. Run
+ * {@link #main(String[])} to get the numbers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemcachedSinkTaskBenchmark {
+  static final int BATCH_SIZE = 500;
+  static final int PARTITIONS = 12;
+  static final InetSocketAddress NODE = InetSocketAddress.createUnresolved("localhost", 11211);
+
+  /**
+   * Operation that has already completed successfully. Listeners are not called so the stub does
+   * not allocate.
+   */
+  static class CompletedFuture extends OperationFuture<Boolean> {
+    static final OperationStatus STATUS = new OperationStatus(true, "OK", StatusCode.SUCCESS);
+
+    CompletedFuture() {
+      super("benchmark", new CountDownLatch(0), 0L, null);
+    }
+
+    @Override
+    public Boolean get(long duration, TimeUnit units) {
+      return true;
+    }
+
+    @Override
+    public boolean isDone() {
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public OperationStatus getStatus() {
+      return STATUS;
+    }
+
+    @Override
+    public OperationFuture<Boolean> addListener(OperationCompletionListener listener) {
+      return this;
+    }
+  }
+
+  @Param({"SET", "TOUCH"})
+  public String writeMode;
+
+  List<SinkRecord> records;
+  MemcachedClient client;
+  NodeLocator locator;
+  MemcachedSinkTask task;
+
+  @Setup
+  public void setup() {
+    this.records = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      this.records.add(
+          new SinkRecord(
+              "benchmark",
+              i % PARTITIONS,
+              Schema.STRING_SCHEMA,
+              "key" + i,
+              Schema.BYTES_SCHEMA,
+              new byte[128],
+              i
+          )
+      );
+    }
+    final OperationFuture<Boolean> future = new CompletedFuture();
+    this.client = mock(MemcachedClient.class, withSettings().stubOnly());
+    when(this.client.set(anyString(), anyInt(), any(), any())).thenReturn(future);
+    when(this.client.touch(anyString(), anyInt())).thenReturn(future);
+    final MemcachedNode node = mock(MemcachedNode.class, withSettings().stubOnly());
+    when(node.getSocketAddress()).thenReturn(NODE);
+    this.locator = mock(NodeLocator.class, withSettings().stubOnly());
+    when(this.locator.getPrimary(anyString())).thenReturn(node);
+
+    this.task = new MemcachedSinkTask();
+    this.task.config = new MemcachedSinkConnectorConfig(
+        ImmutableMap.of(
+            MemcachedSinkConnectorConfig.KEY_TEMPLATE_CONF, "${topic}:${key}",
+            MemcachedSinkConnectorConfig.CIRCUIT_BREAKER_ENABLED_CONF, "true",
+            MemcachedSinkConnectorConfig.WRITE_MODE_CONF, this.writeMode
+        )
+    );
+    this.task.encoder = new RecordEncoder(this.task.config);
+    final MemcachedCluster cluster = new MemcachedCluster(
+        MemcachedCluster.DEFAULT_NAME,
+        this.task.config.hosts,
+        this.task.config,
+        ImmutableMap.of()
+    );
+    cluster.client = this.client;
+    cluster.locator = this.locator;
+    cluster.circuitBreakers = new HashMap<>();
+    cluster.circuitBreakers.put(NODE, new NodeCircuitBreaker(NODE, this.task.config));
+    this.task.defaultCluster = cluster;
+    this.task.clusters = Collections.singletonList(cluster);
+    this.task.router = new ClusterRouter(cluster, Collections.emptyList());
+    this.task.initialize(mock(SinkTaskContext.class, withSettings().stubOnly()));
+  }
+
+  /**
+   * The calls put() makes on the stubs for every record, without put() itself.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void client(Blackhole blackhole) {
+    for (SinkRecord record : this.records) {
+      final String key = (String) record.key();
+      blackhole.consume(this.locator.getPrimary(key).getSocketAddress());
+      if ("TOUCH".equals(this.writeMode)) {
+        blackhole.consume(this.client.touch(key, 0));
+      } else {
+        blackhole.consume(this.client.set(key, 0, (byte[]) record.value(), ByteArrayTranscoder.INSTANCE));
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void put() {
+    this.task.put(this.records);
+  }
+
+  public static void main(String... args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(MemcachedSinkTaskBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
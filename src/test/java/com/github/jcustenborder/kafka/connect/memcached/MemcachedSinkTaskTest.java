@@ -0,0 +1,302 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.internal.OperationFuture;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MemcachedSinkTaskTest {
+  static final InetSocketAddress HEALTHY = InetSocketAddress.createUnresolved("healthy", 11211);
+  static final InetSocketAddress HUNG = InetSocketAddress.createUnresolved("hung", 11211);
+  static final TopicPartition PARTITION_1 = new TopicPartition("topic", 1);
+
+  MemcachedClient client;
+  OperationFuture<Boolean> future;
+  OperationFuture<Boolean> hungFuture;
+  SinkTaskContext context;
+  MemcachedCluster cluster;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  public void before() throws Exception {
+    this.client = mock(MemcachedClient.class);
+    this.future = mock(OperationFuture.class);
+    when(this.future.get(anyLong(), any(TimeUnit.class))).thenReturn(true);
+    when(this.client.set(anyString(), anyInt(), any(), any())).thenReturn(this.future);
+    when(this.client.delete(anyString())).thenReturn(this.future);
+    when(this.client.touch(anyString(), anyInt())).thenReturn(this.future);
+    this.hungFuture = mock(OperationFuture.class);
+    when(this.hungFuture.get(anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+      final TimeUnit unit = invocation.getArgument(1);
+      unit.sleep(invocation.getArgument(0));
+      throw new TimeoutException();
+    });
+    when(this.client.set(startsWith("hung"), anyInt(), any(), any())).thenReturn(this.hungFuture);
+    this.context = mock(SinkTaskContext.class);
+  }
+
+  /**
+   * Keys starting with hung are located on a node that never answers, everything else on a healthy node.
+   */
+  void circuitBreakers() {
+    final MemcachedNode healthy = mock(MemcachedNode.class);
+    when(healthy.getSocketAddress()).thenReturn(HEALTHY);
+    final MemcachedNode hung = mock(MemcachedNode.class);
+    when(hung.getSocketAddress()).thenReturn(HUNG);
+    final NodeLocator locator = mock(NodeLocator.class);
+    when(locator.getPrimary(anyString())).thenReturn(healthy);
+    when(locator.getPrimary(startsWith("hung"))).thenReturn(hung);
+    this.cluster.locator = locator;
+    this.cluster.circuitBreakers = new HashMap<>();
+    this.cluster.circuitBreakers.put(HEALTHY, new NodeCircuitBreaker(HEALTHY, this.cluster.config));
+    this.cluster.circuitBreakers.put(HUNG, new NodeCircuitBreaker(HUNG, this.cluster.config));
+  }
+
+  MemcachedSinkTask task(Map<String, String> settings) {
+    final MemcachedSinkTask task = new MemcachedSinkTask();
+    task.config = new MemcachedSinkConnectorConfig(settings);
+    task.encoder = new RecordEncoder(task.config);
+    this.cluster = new MemcachedCluster(MemcachedCluster.DEFAULT_NAME, task.config.hosts, task.config, ImmutableMap.of());
+    this.cluster.client = this.client;
+    task.defaultCluster = this.cluster;
+    task.clusters = Collections.singletonList(this.cluster);
+    task.router = new ClusterRouter(this.cluster, Collections.emptyList());
+    task.initialize(this.context);
+    return task;
+  }
+
+  static SinkRecord record(int partition, Object key, Object value, long offset) {
+    return new SinkRecord("topic", partition, Schema.OPTIONAL_STRING_SCHEMA, key, Schema.OPTIONAL_BYTES_SCHEMA, value, offset);
+  }
+
+  static SinkRecord record(Object key, Object value, long offset) {
+    return record(0, key, value, offset);
+  }
+
+  static void verifySet(MemcachedClient client, String key, int times) {
+    verify(client, times(times)).set(eq(key), anyInt(), any(byte[].class), eq(ByteArrayTranscoder.INSTANCE));
+  }
+
+  @Test
+  public void invalidKeyFailsBeforeDispatch() {
+    final MemcachedSinkTask task = task(ImmutableMap.of());
+    assertThrows(
+        DataException.class,
+        () -> task.put(ImmutableList.of(record("a", new byte[]{1}, 0L), record(null, new byte[]{2}, 1L)))
+    );
+    verify(this.client, never()).set(anyString(), anyInt(), any(byte[].class), eq(ByteArrayTranscoder.INSTANCE));
+    assertTrue(this.cluster.pendingOperations.isEmpty());
+
+    task.put(ImmutableList.of(record("a", new byte[]{1}, 0L)));
+    verifySet(this.client, "a", 1);
+  }
+
+  @Test
+  public void failedBatchIsDiscarded() {
+    final MemcachedSinkTask task = task(ImmutableMap.of());
+    assertThrows(
+        IllegalStateException.class,
+        () -> task.put(ImmutableList.of(record("a", new byte[]{1}, 0L), record("b", "not bytes", 1L)))
+    );
+    assertTrue(this.cluster.pendingOperations.isEmpty());
+    assertNull(task.encoder.keys[0]);
+
+    task.put(ImmutableList.of(record("a", new byte[]{1}, 0L)));
+    verifySet(this.client, "a", 2);
+  }
+
+  static ImmutableList<SinkRecord> duplicateKeys(long offset) {
+    return ImmutableList.of(
+        record("a", new byte[]{1}, offset),
+        record("b", new byte[]{2}, offset + 1),
+        record("a", new byte[]{3}, offset + 2),
+        record("a", new byte[]{4}, offset + 3)
+    );
+  }
+
+  @Test
+  public void touchSendsOneOperationPerKeyPerBatch() {
+    final MemcachedSinkTask task = task(
+        ImmutableMap.of(MemcachedSinkConnectorConfig.WRITE_MODE_CONF, MemcachedSinkConnectorConfig.WriteMode.TOUCH.name())
+    );
+    task.put(duplicateKeys(0L));
+    verify(this.client, times(1)).touch(eq("a"), anyInt());
+    verify(this.client, times(1)).touch(eq("b"), anyInt());
+    task.put(duplicateKeys(4L));
+    verify(this.client, times(2)).touch(eq("a"), anyInt());
+    verify(this.client, times(2)).touch(eq("b"), anyInt());
+    verify(this.client, never()).set(anyString(), anyInt(), any(byte[].class), eq(ByteArrayTranscoder.INSTANCE));
+    verifyOffsetWritten(0, 7L);
+  }
+
+  @Test
+  public void deleteSendsOneOperationPerKeyPerBatch() {
+    final MemcachedSinkTask task = task(
+        ImmutableMap.of(MemcachedSinkConnectorConfig.WRITE_MODE_CONF, MemcachedSinkConnectorConfig.WriteMode.DELETE.name())
+    );
+    task.put(duplicateKeys(0L));
+    verify(this.client, times(1)).delete("a");
+    verify(this.client, times(1)).delete("b");
+    task.put(duplicateKeys(4L));
+    verify(this.client, times(2)).delete("a");
+    verify(this.client, times(2)).delete("b");
+    verify(this.client, never()).set(anyString(), anyInt(), any(byte[].class), eq(ByteArrayTranscoder.INSTANCE));
+    verifyOffsetWritten(0, 7L);
+  }
+
+  @Test
+  public void setWritesEveryRecord() {
+    final MemcachedSinkTask task = task(ImmutableMap.of());
+    task.put(duplicateKeys(0L));
+    verifySet(this.client, "a", 3);
+    verifySet(this.client, "b", 1);
+    verify(this.client, never()).touch(anyString(), anyInt());
+    verify(this.client, never()).delete(anyString());
+    verifyOffsetWritten(0, 3L);
+  }
+
+  Map<String, String> circuitBreakerSettings(String failureMode) {
+    return ImmutableMap.of(
+        MemcachedSinkConnectorConfig.CIRCUIT_BREAKER_ENABLED_CONF, "true",
+        MemcachedSinkConnectorConfig.CIRCUIT_BREAKER_SLOW_CALL_CONF, "100",
+        MemcachedSinkConnectorConfig.FAILURE_MODE_CONF, failureMode
+    );
+  }
+
+  void verifyOffsetWrites(int partition, int times) {
+    verify(this.client, times(times)).set(
+        eq("__kafka.offset.topic." + partition),
+        eq(0),
+        any(OffsetState.class),
+        eq(OffsetStateTranscoder.INSTANCE)
+    );
+  }
+
+  void verifyOffsetWritten(int partition, long offset) {
+    verify(this.client).set(
+        eq("__kafka.offset.topic." + partition),
+        eq(0),
+        argThat((OffsetState state) -> offset == state.offset()),
+        eq(OffsetStateTranscoder.INSTANCE)
+    );
+  }
+
+  @Test
+  public void hungNodeDoesNotWaitForTheOperationTimeout() {
+    final MemcachedSinkTask task = task(circuitBreakerSettings(FailureMode.Retry.name()));
+    circuitBreakers();
+    final long started = System.nanoTime();
+    task.put(
+        ImmutableList.of(
+            record(0, "a", new byte[]{1}, 0L),
+            record(1, "hung1", new byte[]{2}, 0L),
+            record(1, "hung2", new byte[]{3}, 1L)
+        )
+    );
+    final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    assertTrue(elapsed < TimeUnit.SECONDS.toMillis(5), "put() took " + elapsed + " ms");
+    assertEquals(NodeCircuitBreaker.State.OPEN, this.cluster.circuitBreakers.get(HUNG).state());
+    assertEquals(NodeCircuitBreaker.State.CLOSED, this.cluster.circuitBreakers.get(HEALTHY).state());
+    verify(this.context).offset(ImmutableMap.of(PARTITION_1, 0L));
+    verify(this.context).pause(PARTITION_1);
+    verifyOffsetWritten(0, 0L);
+    verifyOffsetWrites(1, 0);
+  }
+
+  @Test
+  public void openCircuitParksOnlyAffectedPartitions() {
+    final MemcachedSinkTask task = task(circuitBreakerSettings(FailureMode.Retry.name()));
+    circuitBreakers();
+    this.cluster.circuitBreakers.get(HUNG).recordTimeout(System.nanoTime());
+    task.put(
+        ImmutableList.of(
+            record(0, "a", new byte[]{1}, 10L),
+            record(1, "b", new byte[]{2}, 20L),
+            record(1, "hung", new byte[]{3}, 21L),
+            record(1, "c", new byte[]{4}, 22L)
+        )
+    );
+    verifySet(this.client, "a", 1);
+    verifySet(this.client, "b", 1);
+    verifySet(this.client, "c", 1);
+    verifySet(this.client, "hung", 0);
+    verify(this.context).offset(ImmutableMap.of(PARTITION_1, 21L));
+    verify(this.context).pause(PARTITION_1);
+    verifyOffsetWritten(0, 10L);
+    verifyOffsetWritten(1, 20L);
+
+    task.put(ImmutableList.of());
+    assertEquals(Collections.singleton(PARTITION_1), task.pausedPartitions);
+    task.resumeAt = System.nanoTime();
+    task.put(ImmutableList.of());
+    verify(this.context).resume(PARTITION_1);
+    assertTrue(task.pausedPartitions.isEmpty());
+  }
+
+  @Test
+  public void openCircuitDropsWithCancel() {
+    final MemcachedSinkTask task = task(circuitBreakerSettings(FailureMode.Cancel.name()));
+    circuitBreakers();
+    this.cluster.circuitBreakers.get(HUNG).recordTimeout(System.nanoTime());
+    task.put(
+        ImmutableList.of(
+            record(0, "a", new byte[]{1}, 10L),
+            record(1, "hung", new byte[]{3}, 21L)
+        )
+    );
+    verifySet(this.client, "a", 1);
+    verifySet(this.client, "hung", 0);
+    assertTrue(task.pausedPartitions.isEmpty());
+    verifyOffsetWritten(0, 10L);
+    verifyOffsetWritten(1, 21L);
+  }
+}
@@ -46,6 +46,7 @@ import java.util.concurrent.ExecutionException;
 import static com.github.jcustenborder.kafka.connect.utils.SinkRecordHelper.write;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @Compose(dockerComposePath = "src/test/resources/docker-compose.yml")
@@ -83,7 +84,19 @@ public class MemcachedSinkTaskTestIT {
     task.initialize(this.context);
     Map<String, String> settings = settings(address);
     task.start(settings);
+    task.open(ImmutableSet.of(TOPIC_PARTITION));
+    verify(this.context).offset(ImmutableMap.of(TOPIC_PARTITION, 12345L));
+  }
 
+  @Test
+  public void missingOffsets(@Port(container = CONTAINER, internalPort = PORT) InetSocketAddress address) {
+    final TopicPartition topicPartition = new TopicPartition("missing", 3);
+    MemcachedSinkTask task = new MemcachedSinkTask();
+    task.initialize(this.context);
+    Map<String, String> settings = settings(address);
+    task.start(settings);
+    task.open(ImmutableSet.of(topicPartition));
+    verify(this.context).offset(ImmutableMap.of(topicPartition, 0L));
   }
 
 
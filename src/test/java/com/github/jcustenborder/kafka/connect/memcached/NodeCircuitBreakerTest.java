@@ -0,0 +1,104 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NodeCircuitBreakerTest {
+  static final InetSocketAddress NODE = InetSocketAddress.createUnresolved("localhost", 11211);
+  static final long OPEN_MS = 1000L;
+
+  NodeCircuitBreaker circuitBreaker() {
+    return new NodeCircuitBreaker(NODE, 10, 0.5D, 100L, OPEN_MS);
+  }
+
+  @Test
+  public void opensOnFailureRate() {
+    NodeCircuitBreaker circuitBreaker = circuitBreaker();
+    for (int i = 0; i < 5; i++) {
+      circuitBreaker.recordSuccess(1L, 0L);
+    }
+    for (int i = 0; i < 4; i++) {
+      circuitBreaker.recordFailure(1L, 0L);
+    }
+    assertEquals(NodeCircuitBreaker.State.CLOSED, circuitBreaker.state());
+    circuitBreaker.recordFailure(1L, 0L);
+    assertEquals(NodeCircuitBreaker.State.OPEN, circuitBreaker.state());
+    assertFalse(circuitBreaker.allowRequest(0L));
+  }
+
+  @Test
+  public void opensOnLatency() {
+    NodeCircuitBreaker circuitBreaker = circuitBreaker();
+    for (int i = 0; i < 10; i++) {
+      circuitBreaker.recordSuccess(TimeUnit.MILLISECONDS.toNanos(500), 0L);
+    }
+    assertEquals(NodeCircuitBreaker.State.OPEN, circuitBreaker.state());
+  }
+
+  @Test
+  public void halfOpenProbe() {
+    NodeCircuitBreaker circuitBreaker = circuitBreaker();
+    for (int i = 0; i < 10; i++) {
+      circuitBreaker.recordFailure(1L, 0L);
+    }
+    final long afterOpen = TimeUnit.MILLISECONDS.toNanos(OPEN_MS);
+    assertFalse(circuitBreaker.allowRequest(afterOpen - 1));
+    assertTrue(circuitBreaker.allowRequest(afterOpen));
+    assertEquals(NodeCircuitBreaker.State.HALF_OPEN, circuitBreaker.state());
+    assertFalse(circuitBreaker.allowRequest(afterOpen), "Only one probe should be allowed.");
+    assertEquals(
+        TimeUnit.MILLISECONDS.toNanos(OPEN_MS),
+        circuitBreaker.remainingOpenNanos(afterOpen),
+        "Parked records should back off while the probe is in flight."
+    );
+
+    circuitBreaker.recordFailure(1L, afterOpen);
+    assertEquals(NodeCircuitBreaker.State.OPEN, circuitBreaker.state());
+
+    final long afterSecondOpen = afterOpen * 2;
+    assertTrue(circuitBreaker.allowRequest(afterSecondOpen));
+    circuitBreaker.recordSuccess(1L, afterSecondOpen);
+    assertEquals(NodeCircuitBreaker.State.CLOSED, circuitBreaker.state());
+    assertEquals(0D, circuitBreaker.failureRate());
+  }
+
+  @Test
+  public void opensOnTimeout() {
+    NodeCircuitBreaker circuitBreaker = circuitBreaker();
+    circuitBreaker.recordSuccess(1L, 0L);
+    circuitBreaker.recordTimeout(0L);
+    assertEquals(NodeCircuitBreaker.State.OPEN, circuitBreaker.state());
+    assertFalse(circuitBreaker.allowRequest(1L));
+  }
+
+  @Test
+  public void percentile() {
+    NodeCircuitBreaker circuitBreaker = new NodeCircuitBreaker(NODE, 100, 1D, Long.MAX_VALUE / 1000000L, OPEN_MS);
+    for (int i = 1; i <= 100; i++) {
+      circuitBreaker.recordSuccess(i, 0L);
+    }
+    assertEquals(50L, circuitBreaker.percentile(0.5D));
+    assertEquals(99L, circuitBreaker.percentile(0.99D));
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffsetTrackerTest {
+  OffsetTracker tracker;
+
+  @BeforeEach
+  public void before() {
+    this.tracker = new OffsetTracker();
+  }
+
+  Map<TopicPartition, Long> drain() {
+    Map<TopicPartition, Long> result = new LinkedHashMap<>();
+    this.tracker.drainPending((topicPartition, offsetKey, offset) -> {
+      assertEquals(MemcachedSinkTask.memcacheOffsetKey(topicPartition), offsetKey);
+      result.put(topicPartition, offset);
+    });
+    return result;
+  }
+
+  @Test
+  public void highestOffset() {
+    this.tracker.update("foo", 3, 10L);
+    this.tracker.update("foo", 3, 12L);
+    this.tracker.update("foo", 3, 11L);
+    this.tracker.update("bar", 0, 1L);
+    Map<TopicPartition, Long> pending = drain();
+    assertEquals(2, pending.size());
+    assertEquals(12L, (long) pending.get(new TopicPartition("foo", 3)));
+    assertEquals(1L, (long) pending.get(new TopicPartition("bar", 0)));
+    assertFalse(this.tracker.hasPending());
+    assertTrue(drain().isEmpty());
+  }
+
+  @Test
+  public void remove() {
+    final TopicPartition topicPartition = new TopicPartition("foo", 1);
+    this.tracker.update("foo", 1, 5L);
+    assertEquals(5L, this.tracker.pending(topicPartition));
+    this.tracker.remove(topicPartition);
+    assertEquals(OffsetTracker.NO_OFFSET, this.tracker.pending(topicPartition));
+    assertFalse(this.tracker.hasPending());
+    this.tracker.update("foo", 1, 2L);
+    assertEquals(2L, this.tracker.pending(topicPartition));
+  }
+
+  @Test
+  public void offsetKey() {
+    assertEquals("__kafka.offset.foo.7", this.tracker.offsetKey(new TopicPartition("foo", 7)));
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.github.jcustenborder.kafka.connect.utils.data.TopicPartitionCounter;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per record bookkeeping done by {@link MemcachedSinkTask#put(java.util.Collection)}
+ * around the memcached operation itself. Run {@link #main(String[])} to get the time and the bytes
+ * allocated per record ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PutPathBenchmark {
+  static final int BATCH_SIZE = 500;
+  static final int PARTITIONS = 12;
+
+  List<SinkRecord> records;
+  OffsetTracker offsetTracker;
+
+  @Setup
+  public void setup() {
+    this.records = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      this.records.add(
+          new SinkRecord(
+              "benchmark",
+              i % PARTITIONS,
+              Schema.STRING_SCHEMA,
+              "key" + i,
+              Schema.BYTES_SCHEMA,
+              new byte[128],
+              i
+          )
+      );
+    }
+    this.offsetTracker = new OffsetTracker();
+  }
+
+  /**
+   * The bookkeeping as it was done before {@link OffsetTracker}.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void topicPartitionCounter(Blackhole blackhole) {
+    TopicPartitionCounter counter = new TopicPartitionCounter();
+    for (SinkRecord record : this.records) {
+      blackhole.consume(record.key());
+      counter.increment(record.topic(), record.kafkaPartition(), record.kafkaOffset());
+    }
+    for (Map.Entry<TopicPartition, Long> e : counter.data().entrySet()) {
+      blackhole.consume(
+          String.format("__kafka.offset.%s.%s", e.getKey().topic(), e.getKey().partition())
+      );
+      blackhole.consume(e.getValue());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void offsetTracker(Blackhole blackhole) {
+    for (SinkRecord record : this.records) {
+      blackhole.consume(record.key());
+      this.offsetTracker.update(record.topic(), record.kafkaPartition(), record.kafkaOffset());
+    }
+    this.offsetTracker.drainPending((topicPartition, offsetKey, offset) -> {
+      blackhole.consume(offsetKey);
+      blackhole.consume(offset);
+    });
+  }
+
+  public static void main(String... args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(PutPathBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
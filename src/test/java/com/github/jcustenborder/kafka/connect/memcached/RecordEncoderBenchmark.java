@@ -0,0 +1,111 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures records encoded per second by {@link RecordEncoder} as the number of encoding threads
+ * grows. Keys are built from a template and are long enough to be hashed, and values are
+ * {@link ByteBuffer} slices that have to be copied. Run {@link #main(String[])} to compare thread
+ * counts on the current machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordEncoderBenchmark {
+  static final int BATCH_SIZE = 20000;
+
+  @Param({"0", "1", "2", "4", "8"})
+  public int threads;
+
+  @Param({"1024"})
+  public int valueSize;
+
+  List<SinkRecord> records;
+  RecordEncoder encoder;
+
+  @Setup
+  public void setup() {
+    final String prefix = Strings.repeat("p", 240);
+    final byte[] backing = new byte[this.valueSize + 16];
+    this.records = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      final ByteBuffer value = ByteBuffer.wrap(backing, 8, this.valueSize).slice();
+      this.records.add(
+          new SinkRecord("benchmark", i % 12, Schema.STRING_SCHEMA, prefix + i, Schema.BYTES_SCHEMA, value, i)
+      );
+    }
+    this.encoder = new RecordEncoder(
+        new MemcachedSinkConnectorConfig(
+            ImmutableMap.of(
+                MemcachedSinkConnectorConfig.KEY_TEMPLATE_CONF, "${topic}:${key}",
+                MemcachedSinkConnectorConfig.ENCODING_THREADS_CONF, Integer.toString(this.threads),
+                MemcachedSinkConnectorConfig.ENCODING_PARALLEL_THRESHOLD_CONF, "1"
+            )
+        )
+    );
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.encoder.stop();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void encode(Blackhole blackhole) {
+    this.encoder.encode(this.records);
+    blackhole.consume(this.encoder.keys);
+    blackhole.consume(this.encoder.values);
+  }
+
+  public static void main(String... args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(RecordEncoderBenchmark.class.getSimpleName())
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class RecordEncoderTest {
+
+  @Test
+  public void parallelMatchesInline() {
+    final List<SinkRecord> records = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      final Object key = 0 == i % 100 ? null : "key" + i;
+      final ByteBuffer value = ByteBuffer.wrap(new byte[]{0, (byte) i, 0}, 1, 1).slice();
+      records.add(new SinkRecord("topic", 0, Schema.OPTIONAL_STRING_SCHEMA, key, Schema.BYTES_SCHEMA, value, i));
+    }
+
+    RecordEncoder inline = new RecordEncoder(new MemcachedSinkConnectorConfig(ImmutableMap.of()));
+    RecordEncoder parallel = new RecordEncoder(
+        new MemcachedSinkConnectorConfig(
+            ImmutableMap.of(
+                MemcachedSinkConnectorConfig.ENCODING_THREADS_CONF, "4",
+                MemcachedSinkConnectorConfig.ENCODING_PARALLEL_THRESHOLD_CONF, "256"
+            )
+        )
+    );
+    try {
+      inline.encode(records);
+      parallel.encode(records);
+      for (int i = 0; i < records.size(); i++) {
+        assertEquals(inline.keys[i], parallel.keys[i]);
+        assertArrayEquals((byte[]) inline.values[i], (byte[]) parallel.values[i]);
+        assertArrayEquals(new byte[]{(byte) i}, (byte[]) parallel.values[i]);
+        if (0 == i % 100) {
+          assertNull(parallel.keys[i]);
+          assertNotNull(parallel.errors[i]);
+        } else {
+          assertEquals("key" + i, parallel.keys[i]);
+        }
+      }
+    } finally {
+      parallel.stop();
+    }
+  }
+
+  @Test
+  public void deleteModeSkipsValues() {
+    final List<SinkRecord> records = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      records.add(new SinkRecord("topic", 0, Schema.STRING_SCHEMA, "key" + i, Schema.BYTES_SCHEMA, new byte[]{(byte) i}, i));
+    }
+    RecordEncoder encoder = new RecordEncoder(
+        new MemcachedSinkConnectorConfig(
+            ImmutableMap.of(
+                MemcachedSinkConnectorConfig.WRITE_MODE_CONF, MemcachedSinkConnectorConfig.WriteMode.DELETE.name()
+            )
+        )
+    );
+    encoder.encode(records);
+    for (int i = 0; i < records.size(); i++) {
+      assertEquals("key" + i, encoder.keys[i]);
+      assertNull(encoder.values[i]);
+    }
+  }
+
+  @Test
+  public void templateKeyIsKeptWhenHashed() {
+    final String key = "tenant:" + Strings.repeat("x", 300);
+    final List<SinkRecord> records = new ArrayList<>();
+    records.add(new SinkRecord("topic", 0, Schema.STRING_SCHEMA, key, Schema.BYTES_SCHEMA, new byte[0], 0L));
+    RecordEncoder encoder = new RecordEncoder(new MemcachedSinkConnectorConfig(ImmutableMap.of()));
+    encoder.encode(records);
+    assertEquals(KeyBuilder.HASH_PREFIX.length() + 64, encoder.keys[0].length());
+    assertEquals(key, encoder.templateKeys[0]);
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotSegmentTest {
+  static final long WRITTEN_AT = 1500000000000L;
+  File file;
+
+  @BeforeEach
+  public void before() throws IOException {
+    this.file = Files.createTempFile("snapshot", SnapshotSegment.class.getSimpleName()).toFile();
+    assertTrue(this.file.delete());
+  }
+
+  @AfterEach
+  public void after() {
+    this.file.delete();
+  }
+
+  static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  static Map<String, String> read(SnapshotSegment segment) throws IOException {
+    final List<String> keys = segment.keys();
+    Collections.sort(keys);
+    final Map<String, String> result = new LinkedHashMap<>();
+    segment.read(keys, (key, writtenAt, value) -> {
+      assertEquals(WRITTEN_AT, writtenAt);
+      result.put(key, new String(value, StandardCharsets.UTF_8));
+    });
+    return result;
+  }
+
+  @Test
+  public void latestValueSurvivesReload() throws IOException {
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      segment.append("a", bytes("1"), WRITTEN_AT);
+      segment.append("b", bytes("2"), WRITTEN_AT);
+      segment.append("a", bytes("3"), WRITTEN_AT);
+      segment.append("c", bytes("4"), WRITTEN_AT);
+      segment.append("c", null, WRITTEN_AT);
+      assertEquals(map("a", "3", "b", "2"), read(segment));
+    }
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      assertEquals(map("a", "3", "b", "2"), read(segment));
+      assertEquals(segment.size, this.file.length());
+    }
+  }
+
+  @Test
+  public void incompleteEntryIsTruncated() throws IOException {
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      segment.append("a", bytes("1"), WRITTEN_AT);
+      segment.append("b", bytes("2"), WRITTEN_AT);
+    }
+    final long length = this.file.length();
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "rw")) {
+      randomAccessFile.setLength(length - 1);
+    }
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      assertEquals(map("a", "1"), read(segment));
+      segment.append("c", bytes("3"), WRITTEN_AT);
+    }
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      assertEquals(map("a", "1", "c", "3"), read(segment));
+    }
+  }
+
+  @Test
+  public void compactKeepsLiveEntries() throws IOException {
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      for (int i = 0; i < 1000; i++) {
+        segment.append("key" + (i % 10), bytes(Integer.toString(i)), WRITTEN_AT);
+      }
+      segment.append("key0", null, WRITTEN_AT);
+      segment.compact();
+      assertEquals(SnapshotSegment.FILE_HEADER_LENGTH + segment.liveBytes, this.file.length());
+      assertEquals(9, segment.keys().size());
+      assertEquals("999", read(segment).get("key9"));
+      segment.append("key0", bytes("new"), WRITTEN_AT);
+    }
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      final Map<String, String> values = read(segment);
+      assertEquals(10, values.size());
+      assertEquals("new", values.get("key0"));
+      assertEquals("991", values.get("key1"));
+    }
+  }
+
+  @Test
+  public void checkpointSurvivesReloadAndCompaction() throws IOException {
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      assertEquals(SnapshotSegment.NO_OFFSET, segment.offset);
+      segment.append("a", bytes("1"), WRITTEN_AT);
+      segment.checkpoint(42L);
+    }
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      assertEquals(42L, segment.offset);
+      assertEquals(map("a", "1"), read(segment));
+      segment.append("b", bytes("2"), WRITTEN_AT);
+      segment.checkpoint(43L);
+      segment.compact();
+    }
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      assertEquals(43L, segment.offset);
+      assertEquals(map("a", "1", "b", "2"), read(segment));
+    }
+  }
+
+  @Test
+  public void appendsDuringCompactionAreKept() throws Exception {
+    final Map<String, String> expected = new LinkedHashMap<>();
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      for (int i = 0; i < 100000; i++) {
+        final String key = "key" + (i % 100);
+        segment.append(key, bytes(Integer.toString(i)), WRITTEN_AT);
+        expected.put(key, Integer.toString(i));
+      }
+      final Thread compaction = new Thread(() -> {
+        try {
+          segment.compact();
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      compaction.start();
+      for (int i = 0; i < 10000; i++) {
+        final String key = "key" + (i % 150);
+        if (0 == i % 7) {
+          segment.append(key, null, WRITTEN_AT);
+          expected.remove(key);
+        } else {
+          segment.append(key, bytes("new" + i), WRITTEN_AT);
+          expected.put(key, "new" + i);
+        }
+      }
+      compaction.join();
+      assertFalse(segment.compacting);
+      assertEquals(new TreeMap<>(expected), read(segment));
+    }
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      assertEquals(new TreeMap<>(expected), read(segment));
+      assertEquals(segment.size, this.file.length());
+    }
+  }
+
+  @Test
+  public void failedCompactionKeepsSegment() throws IOException {
+    final File compacted = new File(this.file.getParentFile(), this.file.getName() + ".compact");
+    assertTrue(compacted.mkdir());
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      segment.append("a", bytes("1"), WRITTEN_AT);
+      assertThrows(IOException.class, segment::compact);
+      assertFalse(segment.compacting);
+      segment.append("b", bytes("2"), WRITTEN_AT);
+      assertEquals(map("a", "1", "b", "2"), read(segment));
+    } finally {
+      assertTrue(compacted.delete());
+    }
+    try (SnapshotSegment segment = new SnapshotSegment(this.file)) {
+      assertEquals(map("a", "1", "b", "2"), read(segment));
+    }
+  }
+
+  static Map<String, String> map(String... keysAndValues) {
+    final Map<String, String> result = new LinkedHashMap<>();
+    final List<String> list = Arrays.asList(keysAndValues);
+    for (int i = 0; i < list.size(); i += 2) {
+      result.put(list.get(i), list.get(i + 1));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright © 2017 Jeremy Custenborder (jcustenborder@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jcustenborder.kafka.connect.memcached;
+
+import com.google.common.collect.ImmutableMap;
+import net.spy.memcached.MemcachedClientIF;
+import net.spy.memcached.internal.BulkFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WriteVerifierTest {
+  MemcachedClientIF client;
+  BulkFuture<Map<String, byte[]>> future;
+  WriteVerifier verifier;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  public void before() {
+    this.client = mock(MemcachedClientIF.class);
+    this.future = mock(BulkFuture.class);
+    when(this.client.asyncGetBulk(anyCollection(), any(ByteArrayTranscoder.class))).thenReturn(this.future);
+    MemcachedSinkConnectorConfig config = new MemcachedSinkConnectorConfig(
+        ImmutableMap.of(
+            MemcachedSinkConnectorConfig.VERIFY_SAMPLE_RATIO_CONF, "1.0",
+            MemcachedSinkConnectorConfig.VERIFY_DELAY_CONF, "0"
+        )
+    );
+    this.verifier = new WriteVerifier("default", this.client, config);
+  }
+
+  @Test
+  public void verify() throws ExecutionException, InterruptedException {
+    this.verifier.stage("hit", new byte[]{1, 2, 3});
+    this.verifier.stage("mismatch", new byte[]{4, 5, 6});
+    this.verifier.stage("miss", new byte[]{7});
+    this.verifier.commitStaged();
+    assertEquals(3, this.verifier.getPending());
+
+    when(this.future.getSome(anyLong(), any(TimeUnit.class))).thenReturn(
+        ImmutableMap.of(
+            "hit", new byte[]{1, 2, 3},
+            "mismatch", new byte[]{4, 5, 7}
+        )
+    );
+    when(this.future.isTimeout()).thenReturn(false);
+    assertFalse(this.verifier.verify(System.nanoTime()));
+
+    assertEquals(0, this.verifier.getPending());
+    assertEquals(3L, this.verifier.getVerified());
+    assertEquals(1L, this.verifier.getHits());
+    assertEquals(1L, this.verifier.getMismatches());
+    assertEquals(1L, this.verifier.getMisses());
+  }
+
+  @Test
+  public void superseded() throws ExecutionException, InterruptedException {
+    this.verifier.stage("key", new byte[]{1});
+    this.verifier.commitStaged();
+    this.verifier.stage("key", null);
+    this.verifier.commitStaged();
+    assertFalse(this.verifier.verify(System.nanoTime()));
+    assertEquals(1L, this.verifier.getSuperseded());
+    assertEquals(0L, this.verifier.getVerified());
+  }
+
+  @Test
+  public void supersededInBatch() {
+    this.verifier.stage("key", new byte[]{1});
+    this.verifier.stage("key", null);
+    this.verifier.commitStaged();
+    assertEquals(0, this.verifier.getPending());
+    assertEquals(1L, this.verifier.getSuperseded());
+  }
+
+  @Test
+  public void discard() {
+    this.verifier.stage("key", new byte[]{1});
+    this.verifier.discardStaged();
+    this.verifier.commitStaged();
+    assertEquals(0L, this.verifier.getSampled());
+  }
+}